@@ -0,0 +1,25 @@
+package parser.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Generated log directories shared by the benchmarks, kept under -Dbench.dir (default
+// target/bench-logs) and written only once per row count.
+class BenchmarkData {
+    private static final String COMPLETE = "complete";
+
+    static LogGenerator generator(long rows) {
+        return new LogGenerator().rows(rows).files(Math.max(1, (int) (rows / 2_000_000)));
+    }
+
+    static Path logs(long rows) throws IOException {
+        Path dir = Paths.get(System.getProperty("bench.dir", "target/bench-logs")).resolve("rows-" + rows);
+        if (!Files.exists(dir.resolve(COMPLETE))) {
+            generator(rows).generate(dir);
+            Files.createFile(dir.resolve(COMPLETE));
+        }
+        return dir;
+    }
+}
@@ -0,0 +1,58 @@
+package parser.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.LogParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Time to load a log directory: "parse" reads every .log file, "snapshot" restarts from the
+// snapshot file written by a previous load. Rows per second is rows divided by the score.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "--add-modules", "jdk.incubator.vector"})
+public class IngestBenchmark {
+    @Param({"1000000", "10000000", "100000000"})
+    long rows;
+
+    @Param({"parse", "snapshot"})
+    String mode;
+
+    private Path logs;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        logs = BenchmarkData.logs(rows);
+        if (mode.equals("snapshot")) {
+            new LogParser(logs).close();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void dropSnapshot() throws IOException {
+        if (mode.equals("parse")) {
+            Files.deleteIfExists(logs.resolve("logparser.snapshot"));
+        }
+    }
+
+    @Benchmark
+    public LogParser load() {
+        return new LogParser(logs);
+    }
+}
@@ -0,0 +1,176 @@
+package parser.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Writes synthetic logs in the format of example.log:
+//   ip <tab> user <tab> d.M.yyyy H:mm:ss <tab> EVENT[ task] <tab> STATUS
+// Users, IPs and tasks are drawn from Zipf distributions, so skew 0 is uniform and skew 1 gives a
+// few very active users as in real traffic. Dates advance through the span with up to an hour of
+// jitter, so the files are mostly but not strictly in date order.
+public class LogGenerator {
+    private static final String[] EVENTS = {"LOGIN", "DOWNLOAD_PLUGIN", "WRITE_MESSAGE", "SOLVE_TASK", "DONE_TASK"};
+    private static final double[] EVENT_WEIGHTS = {0.40, 0.10, 0.25, 0.15, 0.10};
+    private static final String[] STATUSES = {"OK", "FAILED", "ERROR"};
+    private static final double[] STATUS_WEIGHTS = {0.90, 0.07, 0.03};
+
+    long rows = 1_000_000;
+    int files = 8;
+    int users = 10_000;
+    int ips = 100_000;
+    int tasks = 100;
+    double skew = 1.0;
+    LocalDateTime start = LocalDateTime.of(2018, 1, 1, 0, 0);
+    int days = 3 * 365;
+    long seed = 42;
+
+    public LogGenerator rows(long rows) {
+        this.rows = rows;
+        return this;
+    }
+
+    public LogGenerator files(int files) {
+        this.files = files;
+        return this;
+    }
+
+    public LogGenerator users(int users) {
+        this.users = users;
+        return this;
+    }
+
+    public LogGenerator ips(int ips) {
+        this.ips = ips;
+        return this;
+    }
+
+    public LogGenerator skew(double skew) {
+        this.skew = skew;
+        return this;
+    }
+
+    public LogGenerator days(int days) {
+        this.days = days;
+        return this;
+    }
+
+    public LogGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public LocalDateTime start() {
+        return start;
+    }
+
+    public LocalDateTime end() {
+        return start.plusDays(days);
+    }
+
+    public static String user(int id) {
+        return "user" + id;
+    }
+
+    public static String ip(int id) {
+        return "10." + (id >>> 16 & 0xFF) + "." + (id >>> 8 & 0xFF) + "." + (id & 0xFF);
+    }
+
+    public void generate(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        SplittableRandom random = new SplittableRandom(seed);
+        Zipf userIds = new Zipf(users, skew);
+        Zipf ipIds = new Zipf(ips, skew);
+        Zipf taskIds = new Zipf(tasks, skew);
+        long spanSeconds = days * 86_400L;
+        long row = 0;
+        for (int file = 0; file < files; file++) {
+            long end = rows * (file + 1) / files;
+            try (Writer out = new BufferedWriter(Files.newBufferedWriter(dir.resolve(String.format("f%03d.log", file)), StandardCharsets.UTF_8), 1 << 16)) {
+                StringBuilder line = new StringBuilder(96);
+                for (; row < end; row++) {
+                    long second = spanSeconds * row / rows + random.nextLong(-3_600, 3_600);
+                    LocalDateTime date = start.plusSeconds(Math.max(0, second));
+                    int event = pick(EVENT_WEIGHTS, random.nextDouble());
+                    line.setLength(0);
+                    line.append(ip(ipIds.next(random))).append('\t')
+                            .append(user(userIds.next(random))).append('\t')
+                            .append(date.getDayOfMonth()).append('.').append(date.getMonthValue()).append('.').append(date.getYear()).append(' ')
+                            .append(date.getHour()).append(':');
+                    pad(line, date.getMinute()).append(':');
+                    pad(line, date.getSecond()).append('\t').append(EVENTS[event]);
+                    if (event >= 3) {
+                        line.append(' ').append(taskIds.next(random) + 1);
+                    }
+                    line.append('\t').append(STATUSES[pick(STATUS_WEIGHTS, random.nextDouble())]).append('\n');
+                    out.append(line);
+                }
+            }
+        }
+    }
+
+    private static StringBuilder pad(StringBuilder line, int value) {
+        return (value < 10 ? line.append('0') : line).append(value);
+    }
+
+    private static int pick(double[] weights, double value) {
+        for (int i = 0; i < weights.length - 1; i++) {
+            value -= weights[i];
+            if (value < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    // Zipf distributed ids in [0, n) by inverting a precomputed CDF
+    private static class Zipf {
+        private final double[] cdf;
+
+        private Zipf(int n, double skew) {
+            cdf = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1 / Math.pow(i + 1, skew);
+                cdf[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cdf[i] /= sum;
+            }
+        }
+
+        private int next(SplittableRandom random) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble());
+            return Math.min(index < 0 ? -index - 1 : index, cdf.length - 1);
+        }
+    }
+
+    // usage: LogGenerator <dir> [rows] [files] [skew] [seed]
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: LogGenerator <dir> [rows] [files] [skew] [seed]");
+            System.exit(1);
+        }
+        LogGenerator generator = new LogGenerator();
+        if (args.length > 1) {
+            generator.rows(Long.parseLong(args[1]));
+        }
+        if (args.length > 2) {
+            generator.files(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            generator.skew(Double.parseDouble(args[3]));
+        }
+        if (args.length > 4) {
+            generator.seed(Long.parseLong(args[4]));
+        }
+        generator.generate(Paths.get(args[0]));
+    }
+}
@@ -0,0 +1,164 @@
+package parser.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.Event;
+import parser.LogParser;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Latency of representative methods of every query interface. Calls cycle through pregenerated
+// arguments: random windows from one day to the whole span and users and IPs among the most
+// active ones. The result cache is off by default so the scans are measured; pass
+// -p resultCacheCapacity=1048576 to measure a dashboard that repeats the same calls.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "--add-modules", "jdk.incubator.vector"})
+public class QueryBenchmark {
+    private static final int ARGUMENTS = 1 << 12;
+    // fewer than the plan cache holds, so execute measures cached plans
+    private static final int QUERIES = 1 << 8;
+    // queries of a reporting job, run one by one and as a batch
+    private static final int REPORT = 40;
+
+    @Param({"1000000", "10000000", "100000000"})
+    long rows;
+
+    @Param({"0"})
+    long resultCacheCapacity;
+
+    private LogParser parser;
+    private final Date[] afters = new Date[ARGUMENTS];
+    private final Date[] befores = new Date[ARGUMENTS];
+    private final String[] users = new String[ARGUMENTS];
+    private final String[] ips = new String[ARGUMENTS];
+    private final String[] queries = new String[QUERIES];
+    private final List<String> report = new ArrayList<>();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        System.setProperty("parser.resultCacheCapacity", Long.toString(resultCacheCapacity));
+        parser = new LogParser(BenchmarkData.logs(rows));
+        LogGenerator generator = BenchmarkData.generator(rows);
+        long start = generator.start().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long span = generator.end().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() - start;
+        SplittableRandom random = new SplittableRandom(7);
+        SimpleDateFormat format = new SimpleDateFormat("d.M.yyyy H:m:s");
+        for (int i = 0; i < ARGUMENTS; i++) {
+            long length = random.nextLong(86_400_000L, span);
+            long from = start + random.nextLong(span - length + 1);
+            afters[i] = new Date(from);
+            befores[i] = new Date(from + length);
+            users[i] = LogGenerator.user(random.nextInt(100));
+            ips[i] = LogGenerator.ip(random.nextInt(1000));
+        }
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = "get ip for user = \"" + users[i] + "\" and date between \"" + format.format(afters[i]) + "\" and \"" + format.format(befores[i]) + "\"";
+        }
+        String[] selects = {"ip", "user", "event", "status"};
+        for (int i = 0; i < REPORT; i++) {
+            report.add("get " + selects[i % selects.length] + " date between \"" + format.format(afters[i]) + "\" and \"" + format.format(befores[i]) + "\"");
+        }
+    }
+
+    private int next() {
+        return next++ & (ARGUMENTS - 1);
+    }
+
+    @Benchmark
+    public Set<String> ipQueryGetUniqueIPs() {
+        int i = next();
+        return parser.getUniqueIPs(afters[i], befores[i]);
+    }
+
+    @Benchmark
+    public Set<String> ipQueryGetIPsForUser() {
+        int i = next();
+        return parser.getIPsForUser(users[i], afters[i], befores[i]);
+    }
+
+    @Benchmark
+    public int userQueryGetNumberOfUsers() {
+        int i = next();
+        return parser.getNumberOfUsers(afters[i], befores[i]);
+    }
+
+    @Benchmark
+    public Set<String> userQueryGetUsersForIP() {
+        int i = next();
+        return parser.getUsersForIP(ips[i], afters[i], befores[i]);
+    }
+
+    @Benchmark
+    public Set<Date> dateQueryGetDatesForUserAndEvent() {
+        int i = next();
+        return parser.getDatesForUserAndEvent(users[i], Event.LOGIN, afters[i], befores[i]);
+    }
+
+    @Benchmark
+    public Date dateQueryGetDateWhenUserLoggedFirstTime() {
+        int i = next();
+        return parser.getDateWhenUserLoggedFirstTime(users[i], afters[i], befores[i]);
+    }
+
+    @Benchmark
+    public int eventQueryGetNumberOfAllEvents() {
+        int i = next();
+        return parser.getNumberOfAllEvents(afters[i], befores[i]);
+    }
+
+    @Benchmark
+    public int eventQueryGetNumberOfAttemptToSolveTask() {
+        int i = next();
+        return parser.getNumberOfAttemptToSolveTask(1, afters[i], befores[i]);
+    }
+
+    @Benchmark
+    public Map<Integer, Integer> eventQueryGetAllSolvedTasksAndTheirNumber() {
+        int i = next();
+        return parser.getAllSolvedTasksAndTheirNumber(afters[i], befores[i]);
+    }
+
+    @Benchmark
+    public Set<Object> execute() throws ParseException {
+        return parser.execute(queries[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public List<Set<Object>> executeReport() throws ParseException {
+        List<Set<Object>> results = new ArrayList<>();
+        for (String query : report) {
+            results.add(parser.execute(query));
+        }
+        return results;
+    }
+
+    @Benchmark
+    public List<Set<Object>> executeReportBatch() throws ParseException {
+        return parser.execute(report);
+    }
+}
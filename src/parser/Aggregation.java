@@ -0,0 +1,431 @@
+package parser;
+
+import parser.index.Bitmap;
+
+import java.util.*;
+
+// Aggregate queries evaluated in one pass over the matching rows of a snapshot, without building
+// the sets of values a plain query returns: the distinct values of the selected field, those per
+// value of a group field, or the number of rows per value. Values stay the longs of the columns
+// (ids, codes, tasks or dates) until the result is built: distinct ids and codes in a BitSet,
+// tasks, dates and rows per value in LongCounts, and a top query keeps only its limit largest
+// counts in a bounded heap. Rows are found like ResultSpliterator finds
+// them, except that events, statuses and tasks filtered by one of those come from the rollups.
+// Rows without a task have no task value.
+class Aggregation {
+    // most rows first, then by value
+    @SuppressWarnings("unchecked")
+    static final Comparator<Map.Entry<Object, Integer>> RANKING = (left, right) -> left.getValue().equals(right.getValue())
+            ? ((Comparable<Object>) left.getKey()).compareTo(right.getKey()) : Integer.compare(right.getValue(), left.getValue());
+
+    private final LogSnapshot snapshot;
+    private final IpTable ipTable;
+    private final SymbolTable userTable;
+    private final Metrics metrics;
+
+    Aggregation(LogSnapshot snapshot, IpTable ipTable, SymbolTable userTable, Metrics metrics) {
+        this.snapshot = snapshot;
+        this.ipTable = ipTable;
+        this.userTable = userTable;
+        this.metrics = metrics;
+    }
+
+    // the result of a count, group by or top plan
+    Set<Object> result(QueryPlan plan, long after, long before) {
+        switch (plan.aggregate) {
+            case COUNT:
+                return Collections.singleton(distinct(plan, after, before).size());
+            case GROUP_BY:
+                Groups groups = groups(plan, after, before);
+                Map<Object, Integer> counts = new HashMap<>();
+                for (int i = 0; i < groups.size; i++) {
+                    counts.put(decode(plan.group, groups.keys[i]), groups.values[i].size());
+                }
+                return groupCounts(counts);
+            default:
+                return top(plan.select, count(plan, after, before), plan.limit);
+        }
+    }
+
+    // What one shard of a ShardCoordinator contributes to a count, group by or top plan: the
+    // distinct values, the distinct values per group, or the rows of every value.
+    Object partial(QueryPlan plan, long after, long before) {
+        switch (plan.aggregate) {
+            case COUNT:
+                return values(plan.select, distinct(plan, after, before));
+            case GROUP_BY:
+                Groups groups = groups(plan, after, before);
+                Map<Object, Set<Object>> values = new HashMap<>();
+                for (int i = 0; i < groups.size; i++) {
+                    values.put(decode(plan.group, groups.keys[i]), values(plan.select, groups.values[i]));
+                }
+                return values;
+            default:
+                return rows(plan.select, count(plan, after, before));
+        }
+    }
+
+    // the number of rows per selected value
+    LongCounts count(QueryPlan plan, long after, long before) {
+        LongCounts counts = new LongCounts();
+        scan(plan, after, before, false, (group, value, rows) -> counts.add(value, rows));
+        return counts;
+    }
+
+    // the distinct selected values; whole segments within the range may add them from their summaries
+    private Distinct distinct(QueryPlan plan, long after, long before) {
+        Distinct values = new Distinct(plan.select);
+        scan(plan, after, before, true, (group, value, rows) -> values.add(value));
+        return values;
+    }
+
+    private Groups groups(QueryPlan plan, long after, long before) {
+        Groups groups = new Groups(plan.select);
+        scan(plan, after, before, false, (group, value, rows) -> groups.add(group, value));
+        return groups;
+    }
+
+    // the distinct selected values per value of the group field, in the order the groups were
+    // first seen; positions maps a group to its index + 1 without boxing it
+    private static final class Groups {
+        private final QueryPlan.Field select;
+        private final LongCounts positions = new LongCounts();
+        private long[] keys = new long[16];
+        private Distinct[] values = new Distinct[16];
+        private int size;
+
+        Groups(QueryPlan.Field select) {
+            this.select = select;
+        }
+
+        void add(long group, long value) {
+            int position = positions.get(group);
+            if (position == 0) {
+                if (size == keys.length) {
+                    keys = Arrays.copyOf(keys, size * 2);
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                keys[size] = group;
+                values[size] = new Distinct(select);
+                position = ++size;
+                positions.add(group, position);
+            }
+            values[position - 1].add(value);
+        }
+    }
+
+    // distinct values of a field: ids and codes are dense and set in a BitSet, tasks and dates
+    // are kept in LongCounts
+    private static final class Distinct {
+        private final BitSet ids;
+        private final LongCounts values;
+
+        Distinct(QueryPlan.Field field) {
+            boolean dense = field != QueryPlan.Field.TASK && field != QueryPlan.Field.DATE;
+            ids = dense ? new BitSet() : null;
+            values = dense ? null : new LongCounts();
+        }
+
+        void add(long value) {
+            if (ids != null) {
+                ids.set((int) value);
+            } else {
+                values.add(value, 1);
+            }
+        }
+
+        int size() {
+            return ids != null ? ids.cardinality() : values.size();
+        }
+    }
+
+    private interface Sink {
+        void add(long group, long value, int rows);
+    }
+
+    private void scan(QueryPlan plan, long after, long before, boolean summaries, Sink sink) {
+        int filterId = ResultSpliterator.filterId(plan, ipTable, userTable);
+        boolean rollup = isRollup(plan.select) && (plan.group == null || isRollup(plan.group)) && (plan.filter == null || isRollup(plan.filter));
+        for (SegmentHandle handle : snapshot.segments) {
+            if (!ResultSpliterator.mayMatch(plan, filterId, after, before, handle)) {
+                continue;
+            }
+            if (summaries && plan.filter == null && plan.group == null && handle.within(after, before) && summarize(plan.select, handle, sink)) {
+                continue;
+            }
+            Segment segment = handle.segment();
+            if (rollup) {
+                scanRollup(plan, filterId, segment, after, before, sink);
+            } else {
+                scanRows(plan, filterId, segment, after, before, sink);
+            }
+        }
+    }
+
+    private void scanRows(QueryPlan plan, int filterId, Segment segment, long after, long before, Sink sink) {
+        int first = segment.firstAfter(after), end = segment.firstNotBefore(before);
+        if (plan.filter == null || plan.filter == QueryPlan.Field.DATE) {
+            if (plan.filter == QueryPlan.Field.DATE) {
+                long date = ((Date) plan.value).getTime();
+                first = segment.firstNotBefore(date);
+                end = date > after && date < before ? segment.firstAfter(date) : first;
+            }
+            for (int row = first; row < end; row++) {
+                add(plan, segment, row, sink);
+            }
+            if (metrics.enabled) {
+                metrics.rows(end - first, end - first);
+            }
+            return;
+        }
+        Bitmap bitmap = ResultSpliterator.bitmap(plan, filterId, segment);
+        if (metrics.enabled) {
+            metrics.rows(end - first, bitmap.cardinality(first, end));
+        }
+        Bitmap.Cursor rows = bitmap.cursor(first, end);
+        for (int row = rows.next(); row >= 0; row = rows.next()) {
+            add(plan, segment, row, sink);
+        }
+    }
+
+    private static void add(QueryPlan plan, Segment segment, int row, Sink sink) {
+        long value = value(plan.select, segment, row);
+        long group = plan.group == null ? 0 : value(plan.group, segment, row);
+        if (hasValue(plan.select, value) && (plan.group == null || hasValue(plan.group, group))) {
+            sink.add(group, value, 1);
+        }
+    }
+
+    // the counts of the (event, status, task) keys of the rollup in the date range
+    private static void scanRollup(QueryPlan plan, int filterId, Segment segment, long after, long before, Sink sink) {
+        Rollup rollup = segment.rollup;
+        int[] counts = rollup.countKeys(segment.firstAfter(after), segment.firstNotBefore(before));
+        for (int key = 0; key < counts.length; key++) {
+            if (counts[key] == 0 || plan.filter != null && value(plan.filter, rollup, key) != filterId) {
+                continue;
+            }
+            long value = value(plan.select, rollup, key);
+            long group = plan.group == null ? 0 : value(plan.group, rollup, key);
+            if (hasValue(plan.select, value) && (plan.group == null || hasValue(plan.group, group))) {
+                sink.add(group, value, counts[key]);
+            }
+        }
+    }
+
+    // the distinct values of a segment within the range from its summaries, if it keeps them
+    private static boolean summarize(QueryPlan.Field select, SegmentHandle handle, Sink sink) {
+        switch (select) {
+            case IP:
+                for (int id : handle.ips) {
+                    sink.add(0, id, 1);
+                }
+                return true;
+            case USER:
+                for (int id : handle.users) {
+                    sink.add(0, id, 1);
+                }
+                return true;
+            case EVENT:
+            case STATUS:
+                int mask = select == QueryPlan.Field.EVENT ? handle.events : handle.statuses;
+                for (int code = 0; mask != 0; code++, mask >>>= 1) {
+                    if ((mask & 1) != 0) {
+                        sink.add(0, code, 1);
+                    }
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isRollup(QueryPlan.Field field) {
+        return field == QueryPlan.Field.EVENT || field == QueryPlan.Field.STATUS || field == QueryPlan.Field.TASK;
+    }
+
+    private static boolean hasValue(QueryPlan.Field field, long value) {
+        return field != QueryPlan.Field.TASK || value != LogStore.NO_TASK;
+    }
+
+    private static long value(QueryPlan.Field field, Segment segment, int row) {
+        switch (field) {
+            case IP:
+                return segment.ip(row);
+            case USER:
+                return segment.user(row);
+            case DATE:
+                return segment.date(row);
+            case EVENT:
+                return segment.event(row);
+            case STATUS:
+                return segment.status(row);
+            default:
+                return segment.task(row);
+        }
+    }
+
+    private static long value(QueryPlan.Field field, Rollup rollup, int key) {
+        switch (field) {
+            case EVENT:
+                return rollup.event(key);
+            case STATUS:
+                return rollup.status(key);
+            default:
+                return rollup.task(key);
+        }
+    }
+
+    private Object decode(QueryPlan.Field field, long value) {
+        switch (field) {
+            case IP:
+                return ipTable.valueOf((int) value);
+            case USER:
+                return userTable.valueOf((int) value);
+            case DATE:
+                return new Date(value);
+            case EVENT:
+                return LogStore.EVENTS[(int) value];
+            case STATUS:
+                return LogStore.STATUSES[(int) value];
+            default:
+                return (int) value;
+        }
+    }
+
+    private Set<Object> values(QueryPlan.Field field, Distinct distinct) {
+        Set<Object> values = new HashSet<>();
+        if (distinct.ids != null) {
+            for (int id = distinct.ids.nextSetBit(0); id >= 0; id = distinct.ids.nextSetBit(id + 1)) {
+                values.add(decode(field, id));
+            }
+            return values;
+        }
+        LongCounts counts = distinct.values;
+        for (int slot = 0; slot < counts.capacity(); slot++) {
+            if (counts.used(slot)) {
+                values.add(decode(field, counts.key(slot)));
+            }
+        }
+        return values;
+    }
+
+    private Map<Object, Integer> rows(QueryPlan.Field field, LongCounts counts) {
+        Map<Object, Integer> rows = new HashMap<>();
+        for (int slot = 0; slot < counts.capacity(); slot++) {
+            if (counts.used(slot)) {
+                rows.put(decode(field, counts.key(slot)), counts.count(slot));
+            }
+        }
+        return rows;
+    }
+
+    // the limit values with the most rows as value=rows entries, see RANKING; a heap of the best
+    // so far, worst at the top, so that only values that may enter it are decoded
+    private Set<Object> top(QueryPlan.Field field, LongCounts counts, int limit) {
+        int capacity = Math.min(limit, counts.size());
+        int[] rows = new int[capacity];
+        Object[] values = new Object[capacity];
+        int size = 0;
+        for (int slot = 0; slot < counts.capacity(); slot++) {
+            if (!counts.used(slot)) {
+                continue;
+            }
+            int count = counts.count(slot);
+            if (size == capacity && count < rows[0]) {
+                continue;
+            }
+            Object value = decode(field, counts.key(slot));
+            if (size < capacity) {
+                rows[size] = count;
+                values[size] = value;
+                siftUp(rows, values, size++);
+            } else if (better(count, value, rows[0], values[0])) {
+                rows[0] = count;
+                values[0] = value;
+                siftDown(rows, values, size);
+            }
+        }
+        List<Map.Entry<Object, Integer>> entries = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(values[i], rows[i]));
+        }
+        entries.sort(RANKING);
+        return new LinkedHashSet<>(entries);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean better(int rows, Object value, int otherRows, Object otherValue) {
+        return rows != otherRows ? rows > otherRows : ((Comparable<Object>) value).compareTo(otherValue) < 0;
+    }
+
+    private static void siftUp(int[] rows, Object[] values, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better(rows[parent], values[parent], rows[i], values[i])) {
+                return;
+            }
+            swap(rows, values, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] rows, Object[] values, int size) {
+        int i = 0;
+        while (true) {
+            int worst = i;
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+                if (better(rows[worst], values[worst], rows[child], values[child])) {
+                    worst = child;
+                }
+            }
+            if (worst == i) {
+                return;
+            }
+            swap(rows, values, i, worst);
+            i = worst;
+        }
+    }
+
+    private static void swap(int[] rows, Object[] values, int i, int j) {
+        int count = rows[i];
+        rows[i] = rows[j];
+        rows[j] = count;
+        Object value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    // the limit values with the most rows, from the rows of every value
+    static Set<Object> top(Map<Object, Integer> rows, int limit) {
+        List<Map.Entry<Object, Integer>> entries = new ArrayList<>();
+        for (Map.Entry<Object, Integer> entry : rows.entrySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+        }
+        entries.sort(RANKING);
+        return new LinkedHashSet<>(entries.subList(0, Math.min(limit, entries.size())));
+    }
+
+    // the entries of a cached result with new Dates, which would otherwise be shared with every caller
+    static Set<Object> copyDates(Set<Object> result) {
+        Set<Object> copy = new LinkedHashSet<>();
+        for (Object element : result) {
+            if (element instanceof Map.Entry && ((Map.Entry<?, ?>) element).getKey() instanceof Date) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) element;
+                element = new AbstractMap.SimpleImmutableEntry<>(new Date(((Date) entry.getKey()).getTime()), entry.getValue());
+            }
+            copy.add(element);
+        }
+        return Collections.unmodifiableSet(copy);
+    }
+
+    // group=count entries in the order of the groups
+    @SuppressWarnings("unchecked")
+    static Set<Object> groupCounts(Map<Object, Integer> counts) {
+        List<Map.Entry<Object, Integer>> entries = new ArrayList<>();
+        for (Map.Entry<Object, Integer> entry : counts.entrySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+        }
+        entries.sort((left, right) -> ((Comparable<Object>) left.getKey()).compareTo(right.getKey()));
+        return new LinkedHashSet<>(entries);
+    }
+}
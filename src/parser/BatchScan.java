@@ -0,0 +1,244 @@
+package parser;
+
+import parser.index.Bitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Evaluates the plans of a batch in one pass over the segments: each segment that any of the plans
+// may match is loaded once and handled for all of them. Plans filtered by ip, user, event or status
+// follow the bitmaps of the segment, plans filtered by date take the rows at that date, events and
+// statuses come from the rollups, and plans that cover the whole segment take its summaries. The
+// plans selecting the ips, users or dates of a row range share a single scan of the union of
+// their ranges. Plans with an aggregate are skipped and left to the caller.
+class BatchScan {
+    private final List<QueryPlan> plans;
+    private final long[] afters;
+    private final long[] befores;
+    private final int[] filterIds;
+    private final IpTable ipTable;
+    private final SymbolTable userTable;
+    // per plan, the selected ids of ips and users or the ordinals of events and statuses, or the
+    // selected dates
+    private final BitSet[] ids;
+    private final List<Set<Object>> dates;
+
+    BatchScan(List<QueryPlan> plans, long[] afters, long[] befores, IpTable ipTable, SymbolTable userTable) {
+        this.plans = plans;
+        this.afters = afters;
+        this.befores = befores;
+        this.ipTable = ipTable;
+        this.userTable = userTable;
+        filterIds = new int[plans.size()];
+        ids = new BitSet[plans.size()];
+        dates = new ArrayList<>(plans.size());
+        for (int i = 0; i < plans.size(); i++) {
+            filterIds[i] = ResultSpliterator.filterId(plans.get(i), ipTable, userTable);
+            if (plans.get(i).select == QueryPlan.Field.DATE) {
+                dates.add(new HashSet<>());
+            } else {
+                ids[i] = new BitSet();
+                dates.add(null);
+            }
+        }
+    }
+
+    void scan(LogSnapshot snapshot) {
+        int[] active = new int[plans.size()];
+        for (SegmentHandle handle : snapshot.segments) {
+            int count = 0;
+            for (int i = 0; i < plans.size(); i++) {
+                QueryPlan plan = plans.get(i);
+                if (plan.aggregate == null && ResultSpliterator.mayMatch(plan, filterIds[i], afters[i], befores[i], handle)) {
+                    active[count++] = i;
+                }
+            }
+            if (count > 0) {
+                scan(handle, active, count);
+            }
+        }
+    }
+
+    Set<Object> result(int i) {
+        Set<Object> result = new HashSet<>();
+        switch (plans.get(i).select) {
+            case IP:
+                for (int id = ids[i].nextSetBit(0); id >= 0; id = ids[i].nextSetBit(id + 1)) {
+                    result.add(ipTable.valueOf(id));
+                }
+                break;
+            case USER:
+                for (int id = ids[i].nextSetBit(0); id >= 0; id = ids[i].nextSetBit(id + 1)) {
+                    result.add(userTable.valueOf(id));
+                }
+                break;
+            case DATE:
+                return dates.get(i);
+            case EVENT:
+                for (int code = ids[i].nextSetBit(0); code >= 0; code = ids[i].nextSetBit(code + 1)) {
+                    result.add(LogStore.EVENTS[code]);
+                }
+                break;
+            case STATUS:
+                for (int code = ids[i].nextSetBit(0); code >= 0; code = ids[i].nextSetBit(code + 1)) {
+                    result.add(LogStore.STATUSES[code]);
+                }
+                break;
+        }
+        return result;
+    }
+
+    private void scan(SegmentHandle handle, int[] active, int count) {
+        Segment segment = null;
+        int scanned = 0;
+        for (int k = 0; k < count; k++) {
+            int i = active[k];
+            QueryPlan plan = plans.get(i);
+            if (plan.filter == null && plan.select != QueryPlan.Field.DATE && handle.within(afters[i], befores[i])) {
+                addSummary(i, handle);
+                continue;
+            }
+            if (segment == null) {
+                segment = handle.segment();
+            }
+            int first = segment.firstAfter(afters[i]), end = segment.firstNotBefore(befores[i]);
+            if (plan.filter == QueryPlan.Field.DATE) {
+                long date = ((Date) plan.value).getTime();
+                for (int row = Math.max(first, segment.firstNotBefore(date)), last = Math.min(end, segment.firstAfter(date)); row < last; row++) {
+                    add(i, segment, row);
+                }
+            } else if (plan.filter != null) {
+                Bitmap.Cursor rows = ResultSpliterator.bitmap(plan, filterIds[i], segment).cursor(first, end);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    add(i, segment, row);
+                }
+            } else if (plan.select == QueryPlan.Field.EVENT || plan.select == QueryPlan.Field.STATUS) {
+                Rollup rollup = segment.rollup;
+                int[] counts = rollup.countKeys(first, end);
+                for (int key = 0; key < counts.length; key++) {
+                    if (counts[key] > 0) {
+                        ids[i].set(plan.select == QueryPlan.Field.EVENT ? rollup.event(key) : rollup.status(key));
+                    }
+                }
+            } else {
+                // ips, users or dates of a row range, left to the shared scan
+                active[scanned++] = i;
+            }
+        }
+        if (scanned > 0) {
+            scan(segment, active, scanned);
+        }
+    }
+
+    // Cuts the rows at the range bounds of the plans, so that every piece lies in the ranges of a
+    // fixed set of plans. The distinct ips, users or dates of a piece are collected once and added
+    // to each of those plans; every row is read once whatever the number of plans.
+    private void scan(Segment segment, int[] active, int count) {
+        int[] firsts = new int[count];
+        int[] ends = new int[count];
+        int[] cuts = new int[2 * count];
+        for (int k = 0; k < count; k++) {
+            int i = active[k];
+            firsts[k] = segment.firstAfter(afters[i]);
+            ends[k] = segment.firstNotBefore(befores[i]);
+            cuts[2 * k] = firsts[k];
+            cuts[2 * k + 1] = ends[k];
+        }
+        Arrays.sort(cuts);
+        BitSet ips = new BitSet();
+        BitSet users = new BitSet();
+        List<Date> dates = new ArrayList<>();
+        for (int c = 0; c + 1 < cuts.length; c++) {
+            int start = cuts[c], end = cuts[c + 1];
+            if (start >= end) {
+                continue;
+            }
+            ips.clear();
+            users.clear();
+            dates.clear();
+            boolean selectsIps = false, selectsUsers = false, selectsDates = false;
+            for (int k = 0; k < count; k++) {
+                if (firsts[k] <= start && ends[k] >= end) {
+                    QueryPlan.Field select = plans.get(active[k]).select;
+                    selectsIps |= select == QueryPlan.Field.IP;
+                    selectsUsers |= select == QueryPlan.Field.USER;
+                    selectsDates |= select == QueryPlan.Field.DATE;
+                }
+            }
+            for (int row = start; row < end; row++) {
+                if (selectsIps) {
+                    ips.set(segment.ip(row));
+                }
+                if (selectsUsers) {
+                    users.set(segment.user(row));
+                }
+                // rows are sorted, so equal dates are adjacent
+                if (selectsDates && (row == start || segment.date(row) != segment.date(row - 1))) {
+                    dates.add(new Date(segment.date(row)));
+                }
+            }
+            for (int k = 0; k < count; k++) {
+                if (firsts[k] <= start && ends[k] >= end) {
+                    int i = active[k];
+                    switch (plans.get(i).select) {
+                        case IP:
+                            this.ids[i].or(ips);
+                            break;
+                        case USER:
+                            this.ids[i].or(users);
+                            break;
+                        default:
+                            this.dates.get(i).addAll(dates);
+                            break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void addSummary(int i, SegmentHandle segment) {
+        switch (plans.get(i).select) {
+            case IP:
+                for (int id : segment.ips) {
+                    ids[i].set(id);
+                }
+                break;
+            case USER:
+                for (int id : segment.users) {
+                    ids[i].set(id);
+                }
+                break;
+            case EVENT:
+                ids[i].or(BitSet.valueOf(new long[]{segment.events}));
+                break;
+            default:
+                ids[i].or(BitSet.valueOf(new long[]{segment.statuses}));
+                break;
+        }
+    }
+
+    private void add(int i, Segment segment, int row) {
+        switch (plans.get(i).select) {
+            case IP:
+                ids[i].set(segment.ip(row));
+                break;
+            case USER:
+                ids[i].set(segment.user(row));
+                break;
+            case DATE:
+                dates.get(i).add(new Date(segment.date(row)));
+                break;
+            case EVENT:
+                ids[i].set(segment.event(row));
+                break;
+            case STATUS:
+                ids[i].set(segment.status(row));
+                break;
+        }
+    }
+}
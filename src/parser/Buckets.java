@@ -0,0 +1,60 @@
+package parser;
+
+// Fixed width time buckets of a segment. Since the rows are sorted by date, bucket b is the row
+// range [start(b), start(b + 1)); start(count()) is the segment size.
+class Buckets {
+    private final int[] starts;
+
+    Buckets(Segment segment, long millis) {
+        int count = 0;
+        for (int row = 0; row < segment.size; row++) {
+            if (row == 0 || Math.floorDiv(segment.date(row), millis) != Math.floorDiv(segment.date(row - 1), millis)) {
+                count++;
+            }
+        }
+        starts = new int[count + 1];
+        starts[count] = segment.size;
+        int bucket = 0;
+        for (int row = 0; row < segment.size; row++) {
+            if (row == 0 || Math.floorDiv(segment.date(row), millis) != Math.floorDiv(segment.date(row - 1), millis)) {
+                starts[bucket++] = row;
+            }
+        }
+    }
+
+    int count() {
+        return starts.length - 1;
+    }
+
+    int start(int bucket) {
+        return starts[bucket];
+    }
+
+    // first bucket (or the end) starting at or after the row
+    int firstFrom(int row) {
+        int low = 0, high = starts.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < row) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // last bucket (or the end) starting at or before the row
+    int lastFrom(int row) {
+        int low = 0, high = starts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= row) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,58 @@
+package parser;
+
+// Point in time counters of the query result cache.
+public class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long invalidationCount;
+    private final int size;
+    private final long weight;
+
+    CacheStats(long hitCount, long missCount, long evictionCount, long invalidationCount, int size, long weight) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.invalidationCount = invalidationCount;
+        this.size = size;
+        this.weight = weight;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    // entries dropped to stay within the capacity
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    // entries dropped because new rows fell into their date range
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    // total number of result elements held
+    public long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount
+                + ", invalidations=" + invalidationCount + ", size=" + size + ", weight=" + weight + "}";
+    }
+}
@@ -0,0 +1,35 @@
+package parser;
+
+import java.nio.ByteBuffer;
+
+// Selection bitmasks over the byte columns of a segment, events and statuses: bit row of
+// words[code] is set for every row holding the code. When the JVM runs with
+// --add-modules jdk.incubator.vector, VectorColumnScan compares a whole vector of rows against a
+// code at a time; otherwise, or with -Dparser.vector=false, one scalar pass sets the bits of all
+// codes. The masks become the event and status bitmaps of LogIndex.
+class ColumnScan {
+    static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !"false".equals(System.getProperty("parser.vector"));
+
+    // words holds an array of (rows + 63) / 64 zeroed words per code
+    static void select(byte[] column, int rows, long[][] words) {
+        if (VECTORIZED) {
+            VectorColumnScan.select(column, rows, words);
+            return;
+        }
+        for (int row = 0; row < rows; row++) {
+            words[column[row]][row >>> 6] |= 1L << row;
+        }
+    }
+
+    // the column of the given number of rows starting at offset in the buffer
+    static void select(ByteBuffer buffer, int offset, int rows, long[][] words) {
+        if (VECTORIZED) {
+            VectorColumnScan.select(buffer, offset, rows, words);
+            return;
+        }
+        for (int row = 0; row < rows; row++) {
+            words[buffer.get(offset + row)][row >>> 6] |= 1L << row;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package parser;
+
+import java.nio.ByteBuffer;
+
+// The fixed width columns of a segment: date, ip id, user id, event, task and status per row.
+// Heap columns are arrays; mapped columns read the column block of the snapshot file in place,
+// so the rows take no heap at all and only the indexes built over them do.
+abstract class Columns {
+    abstract long date(int row);
+
+    abstract int ip(int row);
+
+    abstract int user(int row);
+
+    abstract int event(int row);
+
+    abstract int task(int row);
+
+    abstract int status(int row);
+
+    // see ColumnScan
+    abstract void selectEvents(int rows, long[][] words);
+
+    abstract void selectStatuses(int rows, long[][] words);
+
+    static final class Heap extends Columns {
+        private final long[] dates;
+        private final int[] ips;
+        private final int[] users;
+        private final byte[] events;
+        private final int[] tasks;
+        private final byte[] statuses;
+
+        Heap(long[] dates, int[] ips, int[] users, byte[] events, int[] tasks, byte[] statuses) {
+            this.dates = dates;
+            this.ips = ips;
+            this.users = users;
+            this.events = events;
+            this.tasks = tasks;
+            this.statuses = statuses;
+        }
+
+        @Override
+        long date(int row) {
+            return dates[row];
+        }
+
+        @Override
+        int ip(int row) {
+            return ips[row];
+        }
+
+        @Override
+        int user(int row) {
+            return users[row];
+        }
+
+        @Override
+        int event(int row) {
+            return events[row];
+        }
+
+        @Override
+        int task(int row) {
+            return tasks[row];
+        }
+
+        @Override
+        int status(int row) {
+            return statuses[row];
+        }
+
+        @Override
+        void selectEvents(int rows, long[][] words) {
+            ColumnScan.select(events, rows, words);
+        }
+
+        @Override
+        void selectStatuses(int rows, long[][] words) {
+            ColumnScan.select(statuses, rows, words);
+        }
+    }
+
+    // the layout of SnapshotFile: all dates, then all ips, users, events, tasks and statuses
+    static final class Mapped extends Columns {
+        private final ByteBuffer buffer;
+        private final int ipsAt;
+        private final int usersAt;
+        private final int eventsAt;
+        private final int tasksAt;
+        private final int statusesAt;
+
+        Mapped(ByteBuffer buffer, int rows) {
+            this.buffer = buffer;
+            this.ipsAt = rows * 8;
+            this.usersAt = ipsAt + rows * 4;
+            this.eventsAt = usersAt + rows * 4;
+            this.tasksAt = eventsAt + rows;
+            this.statusesAt = tasksAt + rows * 4;
+        }
+
+        @Override
+        long date(int row) {
+            return buffer.getLong(row << 3);
+        }
+
+        @Override
+        int ip(int row) {
+            return buffer.getInt(ipsAt + (row << 2));
+        }
+
+        @Override
+        int user(int row) {
+            return buffer.getInt(usersAt + (row << 2));
+        }
+
+        @Override
+        int event(int row) {
+            return buffer.get(eventsAt + row);
+        }
+
+        @Override
+        int task(int row) {
+            return buffer.getInt(tasksAt + (row << 2));
+        }
+
+        @Override
+        int status(int row) {
+            return buffer.get(statusesAt + row);
+        }
+
+        @Override
+        void selectEvents(int rows, long[][] words) {
+            ColumnScan.select(buffer, eventsAt, rows, words);
+        }
+
+        @Override
+        void selectStatuses(int rows, long[][] words) {
+            ColumnScan.select(buffer, statusesAt, rows, words);
+        }
+    }
+}
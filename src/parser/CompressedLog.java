@@ -0,0 +1,115 @@
+package parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+// Parses a gzip compressed log as a two stage pipeline: an inflater thread decompresses the file
+// into blocks of whole lines and hands them over a bounded queue to the parsing thread, so that
+// inflating the next blocks overlaps with parsing the current one. A fixed set of blocks circulates
+// between the stages, so memory does not depend on the size of the file.
+class CompressedLog implements Runnable {
+    static final String SUFFIX = ".log.gz";
+
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int QUEUED_BLOCKS = 4;
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final Path file;
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(QUEUED_BLOCKS + 1);
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(QUEUED_BLOCKS + 2);
+    private volatile IOException failure;
+
+    private CompressedLog(Path file) {
+        this.file = file;
+        for (int i = 0; i < QUEUED_BLOCKS + 2; i++) {
+            free.add(ByteBuffer.allocate(BLOCK_SIZE));
+        }
+    }
+
+    static boolean isCompressed(Path file) {
+        return file.toString().toLowerCase().endsWith(SUFFIX);
+    }
+
+    // parses the whole file into the batch of the parser; a truncated or corrupt file fails
+    // rather than yielding a part
+    static void parse(Path file, LogLineParser parser) throws IOException {
+        CompressedLog log = new CompressedLog(file);
+        Thread inflater = new Thread(log, "LogLoader inflate " + file.getFileName());
+        inflater.setDaemon(true);
+        inflater.start();
+        try {
+            for (ByteBuffer block = log.full.take(); block != END; block = log.full.take()) {
+                parser.parse(block);
+                block.clear();
+                log.free.add(block);
+            }
+            inflater.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + file);
+        } finally {
+            // stops an inflater waiting for a free block when parsing ended early
+            inflater.interrupt();
+        }
+        if (log.failure != null) {
+            throw log.failure;
+        }
+    }
+
+    @Override
+    public void run() {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file), 1 << 16)) {
+            ByteBuffer block = free.take();
+            int length = 0;
+            while (true) {
+                int read = in.read(block.array(), length, block.capacity() - length);
+                if (read < 0) {
+                    if (length > 0) {
+                        full.put(block.limit(length));
+                    }
+                    break;
+                }
+                length += read;
+                if (length < block.capacity()) {
+                    continue;
+                }
+                int lineEnd = length - 1;
+                while (lineEnd >= 0 && block.get(lineEnd) != '\n') {
+                    lineEnd--;
+                }
+                if (lineEnd < 0) {
+                    // a line longer than the block
+                    block = ByteBuffer.allocate(block.capacity() * 2).put(block.array(), 0, length).clear();
+                    continue;
+                }
+                // the partial last line starts the next block
+                int rest = length - lineEnd - 1;
+                ByteBuffer next = free.take();
+                if (next.capacity() < block.capacity()) {
+                    next = ByteBuffer.allocate(block.capacity());
+                }
+                System.arraycopy(block.array(), lineEnd + 1, next.array(), 0, rest);
+                full.put(block.limit(lineEnd + 1));
+                block = next;
+                length = rest;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("Interrupted while inflating " + file);
+        } finally {
+            try {
+                full.put(END);
+            } catch (InterruptedException e) {
+                full.offer(END);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+// Decodes log timestamps in the "d.M.yyyy H:m:s" format into epoch millis, giving the same
+// results as a lenient SimpleDateFormat with that pattern. Days are looked up in a month start
+// table and a lazily filled per-day zone offset cache; days with a zone transition, and years
+// outside the table, fall back to a GregorianCalendar. Instances are safe to share between threads.
+final class DateDecoder {
+    private static final int FIRST_YEAR = 1900;
+    private static final int LAST_YEAR = 2100;
+    private static final int[] MONTH_START_DAYS = monthStartDays();
+    private static final long FIRST_DAY = LocalDate.of(FIRST_YEAR, 1, 1).toEpochDay();
+    private static final int DAYS = (int) (LocalDate.of(LAST_YEAR, 1, 1).toEpochDay() - FIRST_DAY);
+    private static final char[] DELIMITERS = {'.', '.', ' ', ':', ':'};
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+    private static final int TRANSITION = Integer.MIN_VALUE + 1;
+
+    private final TimeZone timeZone;
+    private final ZoneRules rules;
+    private final int fixedOffset;
+    // offsets by local day, filled on first use; racing threads store the same value, so
+    // the cache needs no lock
+    private final int[] offsets;
+
+    DateDecoder(TimeZone timeZone) {
+        this.timeZone = (TimeZone) timeZone.clone();
+        this.rules = timeZone.toZoneId().getRules();
+        if (rules.isFixedOffset()) {
+            fixedOffset = rules.getOffset(Instant.EPOCH).getTotalSeconds();
+            offsets = null;
+        } else {
+            fixedOffset = UNKNOWN;
+            offsets = new int[DAYS];
+            Arrays.fill(offsets, UNKNOWN);
+        }
+    }
+
+    long decode(CharSequence text) throws ParseException {
+        byte[] bytes = text.toString().getBytes(StandardCharsets.ISO_8859_1);
+        return decode(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    long decode(ByteBuffer buffer, int from, int to) throws ParseException {
+        int day = 0, month = 0, year = 0, hour = 0, minute = 0, second = 0;
+        int position = from;
+        for (int field = 0; field < 6; field++) {
+            int start = position;
+            int value = 0;
+            while (position < to && position - start < 9 && isDigit(buffer.get(position))) {
+                value = value * 10 + buffer.get(position++) - '0';
+            }
+            if (position == start) {
+                throw unparseable(buffer, from, to, position);
+            }
+            // as SimpleDateFormat.parse does, text after the seconds is ignored
+            if (field < DELIMITERS.length) {
+                if (position >= to || buffer.get(position) != DELIMITERS[field]) {
+                    throw unparseable(buffer, from, to, position);
+                }
+                position++;
+            }
+            switch (field) {
+                case 0: day = value; break;
+                case 1: month = value; break;
+                case 2: year = value; break;
+                case 3: hour = value; break;
+                case 4: minute = value; break;
+                default: second = value;
+            }
+        }
+        return toEpochMillis(year, month, day, hour, minute, second);
+    }
+
+    long toEpochMillis(int year, int month, int day, int hour, int minute, int second) {
+        long months = (long) year * 12 + month - 1;
+        long normalizedYear = Math.floorDiv(months, 12);
+        if (normalizedYear < FIRST_YEAR || normalizedYear >= LAST_YEAR) {
+            return calendarMillis(year, month, day, hour, minute, second);
+        }
+        long epochDay = MONTH_START_DAYS[(int) (months - FIRST_YEAR * 12L)] + (long) day - 1;
+        long localSeconds = epochDay * 86_400 + hour * 3_600L + minute * 60L + second;
+        int offset = fixedOffset != UNKNOWN ? fixedOffset : offset(Math.floorDiv(localSeconds, 86_400));
+        if (offset == TRANSITION) {
+            return calendarMillis(year, month, day, hour, minute, second);
+        }
+        return (localSeconds - offset) * 1000;
+    }
+
+    // UTC offset in seconds that applies to the whole local day, or TRANSITION
+    private int offset(long localDay) {
+        long index = localDay - FIRST_DAY;
+        if (index < 0 || index >= DAYS) {
+            return computeOffset(localDay);
+        }
+        int offset = offsets[(int) index];
+        if (offset == UNKNOWN) {
+            offset = computeOffset(localDay);
+            offsets[(int) index] = offset;
+        }
+        return offset;
+    }
+
+    // offsets never exceed 18 hours, so a transition outside this window cannot affect the day;
+    // the offset itself comes from the TimeZone, which is what the calendar fallback uses
+    private int computeOffset(long localDay) {
+        long start = localDay * 86_400 - 18 * 3_600;
+        long end = (localDay + 1) * 86_400 + 18 * 3_600;
+        ZoneOffsetTransition transition = rules.nextTransition(Instant.ofEpochSecond(start));
+        int offset = timeZone.getOffset(start * 1000);
+        if (transition != null && transition.toEpochSecond() < end || offset != timeZone.getOffset(end * 1000)) {
+            return TRANSITION;
+        }
+        return offset / 1000;
+    }
+
+    private long calendarMillis(int year, int month, int day, int hour, int minute, int second) {
+        Calendar calendar = new GregorianCalendar(timeZone);
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        return calendar.getTimeInMillis();
+    }
+
+    private static int[] monthStartDays() {
+        int[] days = new int[(LAST_YEAR - FIRST_YEAR) * 12];
+        for (int year = FIRST_YEAR; year < LAST_YEAR; year++) {
+            for (int month = 0; month < 12; month++) {
+                days[(year - FIRST_YEAR) * 12 + month] = (int) LocalDate.of(year, month + 1, 1).toEpochDay();
+            }
+        }
+        return days;
+    }
+
+    private static boolean isDigit(byte value) {
+        return value >= '0' && value <= '9';
+    }
+
+    private static ParseException unparseable(ByteBuffer buffer, int from, int to, int position) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new ParseException("Unparseable date: \"" + new String(bytes, StandardCharsets.ISO_8859_1) + "\"", position - from);
+    }
+}
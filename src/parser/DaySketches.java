@@ -0,0 +1,86 @@
+package parser;
+
+import parser.index.HyperLogLog;
+
+import java.util.Arrays;
+
+// Per day distinct IP and user sketches of a segment. A day with few distinct ids keeps them as a
+// sorted int array, which is smaller than the registers and exact; busier days keep a HyperLogLog.
+// A date range merges the sketches of its whole days and adds the rows of the partial days at
+// both edges, so the answer needs memory for one sketch regardless of the range.
+class DaySketches {
+    static final int PRECISION = 14;
+    private static final long BUCKET_MILLIS = 24 * 60 * 60 * 1000;
+
+    private final Segment segment;
+    private final Buckets buckets;
+    // per day either an int[] of distinct ids or a HyperLogLog
+    private final Object[] ips;
+    private final Object[] users;
+
+    DaySketches(Segment segment) {
+        this.segment = segment;
+        this.buckets = new Buckets(segment, BUCKET_MILLIS);
+        this.ips = sketch(true);
+        this.users = sketch(false);
+    }
+
+    // adds the distinct ids of the column within rows [fromRow, toRow) to the result
+    void addTo(HyperLogLog result, boolean ipColumn, int fromRow, int toRow) {
+        if (fromRow >= toRow) {
+            return;
+        }
+        Object[] sketches = ipColumn ? ips : users;
+        int firstBucket = buckets.firstFrom(fromRow);
+        int endBucket = buckets.lastFrom(toRow);
+        if (firstBucket >= endBucket) {
+            add(result, ipColumn, fromRow, toRow);
+            return;
+        }
+        add(result, ipColumn, fromRow, buckets.start(firstBucket));
+        for (int bucket = firstBucket; bucket < endBucket; bucket++) {
+            if (sketches[bucket] instanceof HyperLogLog) {
+                result.merge((HyperLogLog) sketches[bucket]);
+            } else {
+                for (int id : (int[]) sketches[bucket]) {
+                    result.add(id);
+                }
+            }
+        }
+        add(result, ipColumn, buckets.start(endBucket), toRow);
+    }
+
+    private void add(HyperLogLog result, boolean ipColumn, int fromRow, int toRow) {
+        for (int row = fromRow; row < toRow; row++) {
+            result.add(ipColumn ? segment.ip(row) : segment.user(row));
+        }
+    }
+
+    private Object[] sketch(boolean ipColumn) {
+        Object[] sketches = new Object[buckets.count()];
+        for (int bucket = 0; bucket < sketches.length; bucket++) {
+            int start = buckets.start(bucket);
+            int[] ids = new int[buckets.start(bucket + 1) - start];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = ipColumn ? segment.ip(start + i) : segment.user(start + i);
+            }
+            Arrays.sort(ids);
+            int distinct = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (i == 0 || ids[i] != ids[i - 1]) {
+                    ids[distinct++] = ids[i];
+                }
+            }
+            if (distinct * 4 < 1 << PRECISION) {
+                sketches[bucket] = Arrays.copyOf(ids, distinct);
+            } else {
+                HyperLogLog sketch = new HyperLogLog(PRECISION);
+                for (int i = 0; i < distinct; i++) {
+                    sketch.add(ids[i]);
+                }
+                sketches[bucket] = sketch;
+            }
+        }
+        return sketches;
+    }
+}
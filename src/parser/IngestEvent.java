@@ -0,0 +1,32 @@
+package parser;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// Parsing of one chunk of a log file, or of a whole compressed one.
+@Name("parser.Ingest")
+@Label("Log Ingest")
+@Category("Log Parser")
+class IngestEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Lines")
+    long lines;
+
+    @Label("Parse Errors")
+    long parseErrors;
+
+    // the time measured for the histograms; the event itself is committed at the end
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long nanos;
+}
@@ -0,0 +1,48 @@
+package parser;
+
+// Point in time counters of the lines parsed from one log file. The time is the parsing time
+// summed over the chunks of the file, so the rates are those of a single thread.
+public class IngestStats {
+    private final long bytes;
+    private final long lines;
+    private final long parseErrors;
+    private final long nanos;
+
+    IngestStats(long bytes, long lines, long parseErrors, long nanos) {
+        this.bytes = bytes;
+        this.lines = lines;
+        this.parseErrors = parseErrors;
+        this.nanos = nanos;
+    }
+
+    // bytes read from the file, compressed for a .log.gz
+    public long getBytes() {
+        return bytes;
+    }
+
+    // lines parsed, including those that failed
+    public long getLines() {
+        return lines;
+    }
+
+    public long getParseErrors() {
+        return parseErrors;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public double getLinesPerSecond() {
+        return nanos == 0 ? 0 : lines * 1e9 / nanos;
+    }
+
+    public double getBytesPerSecond() {
+        return nanos == 0 ? 0 : bytes * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "IngestStats{bytes=" + bytes + ", lines=" + lines + ", parseErrors=" + parseErrors + ", nanos=" + nanos + "}";
+    }
+}
@@ -0,0 +1,216 @@
+package parser;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Interns IP addresses into dense int ids. Dotted quad IPv4 addresses are kept as packed ints
+// and only formatted back into Strings when looked up by id; anything else (IPv6, zero padded
+// quads) is kept verbatim.
+// Writers are serialized; lookups take no lock. A writer only fills array positions past the
+// published size (or copies into new arrays) and then publishes the new size in a fresh State,
+// so a reader sees every entry below the size of the state it read.
+class IpTable {
+    private final Map<String, Integer> otherIds = new ConcurrentHashMap<>();
+    private volatile State state = new State(new int[16], new String[16], new int[16], 0);
+
+    synchronized int intern(ByteBuffer buffer, int from, int to) {
+        long address = parseIPv4(buffer, from, to);
+        if (address >= 0) {
+            return intern((int) address);
+        }
+        byte[] encoded = new byte[to - from];
+        buffer.get(from, encoded);
+        return internOther(new String(encoded, Charset.defaultCharset()));
+    }
+
+    synchronized int intern(String value) {
+        long address = parseIPv4(value);
+        return address >= 0 ? intern((int) address) : internOther(value);
+    }
+
+    // copies an address of another table into this one
+    synchronized int intern(IpTable source, int id) {
+        State state = source.state;
+        return state.others[id] == null ? intern(state.addresses[id]) : internOther(state.others[id]);
+    }
+
+    int idOf(String value) {
+        long address = parseIPv4(value);
+        if (address >= 0) {
+            return find(state, (int) address);
+        }
+        Integer id = otherIds.get(value);
+        return id == null ? -1 : id;
+    }
+
+    String valueOf(int id) {
+        State state = this.state;
+        if (state.others[id] != null) {
+            return state.others[id];
+        }
+        int address = state.addresses[id];
+        return (address >>> 24) + "." + (address >>> 16 & 0xFF) + "." + (address >>> 8 & 0xFF) + "." + (address & 0xFF);
+    }
+
+    int size() {
+        return state.size;
+    }
+
+    // entries in id order: a tag byte, then the packed address or the length prefixed text
+    synchronized void write(DataOutputStream out) throws IOException {
+        State state = this.state;
+        int size = state.size;
+        String[] others = state.others;
+        int[] addresses = state.addresses;
+        out.writeInt(size);
+        for (int id = 0; id < size; id++) {
+            if (others[id] == null) {
+                out.writeByte(0);
+                out.writeInt(addresses[id]);
+            } else {
+                byte[] encoded = others[id].getBytes(StandardCharsets.UTF_8);
+                out.writeByte(1);
+                out.writeInt(encoded.length);
+                out.write(encoded);
+            }
+        }
+    }
+
+    // interns the entries written by write, so an empty table gets the same ids
+    synchronized void read(ByteBuffer in) {
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            if (in.get() == 0) {
+                intern(in.getInt());
+            } else {
+                byte[] encoded = new byte[in.getInt()];
+                in.get(encoded);
+                internOther(new String(encoded, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private int intern(int address) {
+        int id = find(state, address);
+        return id >= 0 ? id : add(address, null);
+    }
+
+    private int internOther(String value) {
+        Integer id = otherIds.get(value);
+        if (id == null) {
+            id = add(0, value);
+            otherIds.put(value, id);
+        }
+        return id;
+    }
+
+    private static int find(State state, int address) {
+        int[] slots = state.slots;
+        int mask = slots.length - 1;
+        for (int slot = hash(address) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            // slots may already hold ids the writer has not published yet
+            if (id < state.size && state.addresses[id] == address && state.others[id] == null) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    private int add(int address, String other) {
+        State state = this.state;
+        int size = state.size;
+        int[] addresses = state.addresses;
+        String[] others = state.others;
+        int[] slots = state.slots;
+        if (size == addresses.length) {
+            addresses = Arrays.copyOf(addresses, size * 2);
+            others = Arrays.copyOf(others, size * 2);
+        }
+        addresses[size] = address;
+        others[size] = other;
+        int id = size++;
+        if (2 * size > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int i = 0; i < size; i++) {
+                if (others[i] == null) {
+                    insert(slots, addresses, i);
+                }
+            }
+        } else if (other == null) {
+            insert(slots, addresses, id);
+        }
+        this.state = new State(addresses, others, slots, size);
+        return id;
+    }
+
+    private static void insert(int[] slots, int[] addresses, int id) {
+        int mask = slots.length - 1;
+        int slot = hash(addresses[id]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = id + 1;
+    }
+
+    private static int hash(int address) {
+        int hash = address * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    // packed address, or -1 unless the text is a canonical dotted quad that formats back to itself
+    private static long parseIPv4(ByteBuffer buffer, int from, int to) {
+        long address = 0;
+        int position = from;
+        for (int part = 0; part < 4; part++) {
+            int start = position;
+            int value = 0;
+            while (position < to && position - start < 3 && buffer.get(position) >= '0' && buffer.get(position) <= '9') {
+                value = value * 10 + buffer.get(position++) - '0';
+            }
+            int digits = position - start;
+            if (digits == 0 || value > 255 || digits > 1 && buffer.get(start) == '0') {
+                return -1;
+            }
+            address = address << 8 | value;
+            if (part < 3) {
+                if (position >= to || buffer.get(position) != '.') {
+                    return -1;
+                }
+                position++;
+            }
+        }
+        return position == to ? address : -1;
+    }
+
+    private static long parseIPv4(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0x7F) {
+                return -1;
+            }
+        }
+        byte[] bytes = value.getBytes(Charset.defaultCharset());
+        return parseIPv4(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    private static class State {
+        private final int[] addresses;
+        private final String[] others;
+        // open addressing table over packed IPv4 addresses, holding id + 1 (0 marks a free slot)
+        private final int[] slots;
+        private final int size;
+
+        private State(int[] addresses, String[] others, int[] slots, int size) {
+            this.addresses = addresses;
+            this.others = others;
+            this.slots = slots;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package parser;
+
+import parser.index.Bitmap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+class LogIndex {
+    private static final Bitmap EMPTY = new Bitmap();
+
+    private final Map<Integer, Bitmap> ips = new HashMap<>();
+    private final Map<Integer, Bitmap> users = new HashMap<>();
+    private final Bitmap[] events;
+    private final Bitmap[] statuses;
+    private final Map<Integer, Bitmap> tasks = new HashMap<>();
+
+    LogIndex(Segment segment) {
+        for (int row = 0; row < segment.size; row++) {
+            ips.computeIfAbsent(segment.ip(row), id -> new Bitmap()).add(row);
+            users.computeIfAbsent(segment.user(row), id -> new Bitmap()).add(row);
+            tasks.computeIfAbsent(segment.task(row), task -> new Bitmap()).add(row);
+        }
+        ips.values().forEach(Bitmap::trim);
+        users.values().forEach(Bitmap::trim);
+        tasks.values().forEach(Bitmap::trim);
+        // the few event and status codes are selected column-wise, see ColumnScan
+        long[][] eventWords = new long[LogStore.EVENTS.length][(segment.size + 63) >>> 6];
+        segment.selectEvents(eventWords);
+        events = fromWords(eventWords);
+        long[][] statusWords = new long[LogStore.STATUSES.length][(segment.size + 63) >>> 6];
+        segment.selectStatuses(statusWords);
+        statuses = fromWords(statusWords);
+    }
+
+    Bitmap ip(int id) {
+        return ips.getOrDefault(id, EMPTY);
+    }
+
+    Bitmap user(int id) {
+        return users.getOrDefault(id, EMPTY);
+    }
+
+    Bitmap event(int code) {
+        return events[code];
+    }
+
+    Bitmap status(int code) {
+        return statuses[code];
+    }
+
+    Bitmap task(int task) {
+        return tasks.getOrDefault(task, EMPTY);
+    }
+
+    int[] ipIds() {
+        return sortedKeys(ips);
+    }
+
+    int[] userIds() {
+        return sortedKeys(users);
+    }
+
+    int eventMask() {
+        return mask(events);
+    }
+
+    int statusMask() {
+        return mask(statuses);
+    }
+
+    private static int[] sortedKeys(Map<Integer, Bitmap> bitmaps) {
+        int[] keys = bitmaps.keySet().stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    private static int mask(Bitmap[] bitmaps) {
+        int mask = 0;
+        for (int code = 0; code < bitmaps.length; code++) {
+            if (bitmaps[code].cardinality() > 0) {
+                mask |= 1 << code;
+            }
+        }
+        return mask;
+    }
+
+    private static Bitmap[] fromWords(long[][] words) {
+        Bitmap[] bitmaps = new Bitmap[words.length];
+        for (int code = 0; code < words.length; code++) {
+            bitmaps[code] = Bitmap.fromWords(words[code]);
+            bitmaps[code].trim();
+        }
+        return bitmaps;
+    }
+}
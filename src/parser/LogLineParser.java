@@ -0,0 +1,133 @@
+package parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+
+// Parses tab separated log lines straight from the bytes of a (memory mapped) buffer.
+class LogLineParser {
+    private static final byte[][] EVENT_NAMES = names(LogStore.EVENTS);
+    private static final byte[][] STATUS_NAMES = names(LogStore.STATUSES);
+
+    private final LogStore batch;
+    private final DateDecoder dateDecoder;
+    private ByteBuffer buffer;
+    // lines seen and lines that failed to parse, over all buffers
+    private int lines;
+    private int errors;
+
+    LogLineParser(LogStore batch, DateDecoder dateDecoder) {
+        this.batch = batch;
+        this.dateDecoder = dateDecoder;
+    }
+
+    void parse(ByteBuffer buffer) {
+        this.buffer = buffer;
+        int limit = buffer.limit();
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = indexOf('\n', lineStart, limit);
+            int end = lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            if (end > lineStart) {
+                lines++;
+                try {
+                    parseLine(lineStart, end);
+                } catch (ParseException e) {
+                    errors++;
+                    e.printStackTrace();
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    int lines() {
+        return lines;
+    }
+
+    int errors() {
+        return errors;
+    }
+
+    private void parseLine(int from, int to) throws ParseException {
+        int ipEnd = indexOf('\t', from, to);
+        int userEnd = indexOf('\t', ipEnd + 1, to);
+        int dateEnd = indexOf('\t', userEnd + 1, to);
+        int eventEnd = indexOf('\t', dateEnd + 1, to);
+        if (eventEnd >= to) {
+            throw new ParseException("Expected five tab separated fields in line: " + text(from, to), from);
+        }
+        int statusEnd = indexOf('\t', eventEnd + 1, to);
+        long date = dateDecoder.decode(buffer, userEnd + 1, dateEnd);
+        int taskStart = indexOf(' ', dateEnd + 1, eventEnd);
+        int event = match(EVENT_NAMES, dateEnd + 1, taskStart);
+        int eventNum = taskStart < eventEnd ? parseInt(taskStart + 1, eventEnd) : LogStore.NO_TASK;
+        int status = match(STATUS_NAMES, eventEnd + 1, statusEnd);
+        int ip = batch.ipTable.intern(buffer, from, ipEnd);
+        int user = batch.userTable.intern(buffer, ipEnd + 1, userEnd);
+        batch.add(ip, user, date, (byte) event, eventNum, (byte) status);
+    }
+
+    private int parseInt(int from, int to) throws ParseException {
+        boolean negative = from < to && buffer.get(from) == '-';
+        int start = from < to && (negative || buffer.get(from) == '+') ? from + 1 : from;
+        if (start == to) {
+            throw new ParseException("Unparseable task number: " + text(from, to), from);
+        }
+        int value = 0;
+        for (int i = start; i < to; i++) {
+            if (!isDigit(buffer.get(i))) {
+                throw new ParseException("Unparseable task number: " + text(from, to), i);
+            }
+            value = value * 10 + buffer.get(i) - '0';
+        }
+        return negative ? -value : value;
+    }
+
+    private int match(byte[][] names, int from, int to) throws ParseException {
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = names[i];
+            if (name.length == to - from && startsWith(name, from)) {
+                return i;
+            }
+        }
+        throw new ParseException("Unknown name: " + text(from, to), from);
+    }
+
+    private boolean startsWith(byte[] name, int from) {
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(from + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(char value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private String text(int from, int to) {
+        byte[] bytes = new byte[Math.max(0, to - from)];
+        buffer.get(from, bytes);
+        return new String(bytes, Charset.defaultCharset());
+    }
+
+    private static boolean isDigit(byte value) {
+        return value >= '0' && value <= '9';
+    }
+
+    private static byte[][] names(Enum<?>[] values) {
+        byte[][] names = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            names[i] = values[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,237 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+class LogLoader {
+    private static final long CHUNK_SIZE = 16L << 20;
+
+    private final int parallelism;
+    private final DateDecoder dateDecoder;
+    private final IpTable ipTable;
+    private final SymbolTable userTable;
+    private final Metrics metrics;
+
+    LogLoader(int parallelism, DateDecoder dateDecoder, IpTable ipTable, SymbolTable userTable, Metrics metrics) {
+        this.parallelism = parallelism;
+        this.dateDecoder = dateDecoder;
+        this.ipTable = ipTable;
+        this.userTable = userTable;
+        this.metrics = metrics;
+    }
+
+    // Files are loaded in name order and large files are cut into line-aligned chunks.
+    // Each chunk is parsed into its own batch on the pool, and the batches are merged
+    // in chunk order, so the result does not depend on the parallelism. A compressed file
+    // cannot be cut, so it is one batch inflated and parsed as a pipeline. Every file becomes
+    // one segment, or several consecutive ones when it is large; the length of its complete lines
+    // is recorded in offsets. A last line without a line break is read as well, as it may be the
+    // whole line, but becomes the last segment of the file on its own and the length of the file
+    // is recorded in tails: the tailer reads the line again from the offset once it is complete
+    // and replaces that segment.
+    List<Segment> load(List<Path> files, Map<Path, Long> offsets, Map<Path, Long> tails) {
+        List<Segment> segments = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<List<Future<LogStore>>> batches = new ArrayList<>();
+            // the last line of each file when it has no line break and its batch, or nulls
+            List<Chunk> tailChunks = new ArrayList<>();
+            List<Future<LogStore>> tailBatches = new ArrayList<>();
+            for (Path file : files) {
+                List<Future<LogStore>> fileBatches = new ArrayList<>();
+                Chunk tailChunk = null;
+                Future<LogStore> tail = null;
+                if (CompressedLog.isCompressed(file)) {
+                    fileBatches.add(pool.submit(() -> parseCompressed(file)));
+                } else {
+                    List<Chunk> chunks = chunks(file, offsets);
+                    for (Chunk chunk : chunks) {
+                        if (chunk.end > offsets.get(file)) {
+                            tailChunk = chunk;
+                            tail = pool.submit(() -> parse(chunk));
+                        } else {
+                            fileBatches.add(pool.submit(() -> parse(chunk)));
+                        }
+                    }
+                }
+                batches.add(fileBatches);
+                tailChunks.add(tailChunk);
+                tailBatches.add(tail);
+            }
+            List<Future<List<Segment>>> fileSegments = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                Path file = files.get(i);
+                LogStore rows = new LogStore(ipTable, userTable);
+                for (Future<LogStore> batch : batches.get(i)) {
+                    try {
+                        rows.addAll(batch.get());
+                        if (CompressedLog.isCompressed(file)) {
+                            // a file that failed is left to the tailer to read again
+                            offsets.put(file, Files.size(file));
+                        }
+                    } catch (ExecutionException e) {
+                        e.getCause().printStackTrace();
+                    }
+                }
+                LogStore tailRows = new LogStore(ipTable, userTable);
+                if (tailBatches.get(i) != null) {
+                    try {
+                        tailRows.addAll(tailBatches.get(i).get());
+                    } catch (ExecutionException e) {
+                        e.getCause().printStackTrace();
+                    }
+                }
+                if (tailRows.size > 0) {
+                    tails.put(file, tailChunks.get(i).end);
+                }
+                if (rows.size > 0 || tailRows.size > 0) {
+                    fileSegments.add(pool.submit(() -> {
+                        List<Segment> result = new ArrayList<>();
+                        if (rows.size > 0) {
+                            result.addAll(Segment.partition(file, rows));
+                        }
+                        if (tailRows.size > 0) {
+                            result.add(new Segment(file, tailRows));
+                        }
+                        return result;
+                    }));
+                }
+            }
+            for (Future<List<Segment>> segment : fileSegments) {
+                try {
+                    segments.addAll(segment.get());
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+        return segments;
+    }
+
+    static List<Path> files(Path logDir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(logDir)) {
+            for (Path file : directoryStream) {
+                if (file.toString().toLowerCase().endsWith(".log") || CompressedLog.isCompressed(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    // line aligned chunks of the complete lines, followed by one of the last line when it has no
+    // line break
+    private static List<Chunk> chunks(Path file, Map<Path, Long> offsets) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long complete = lastLineStart(channel, size);
+            long start = 0;
+            while (start < complete) {
+                long end = start + CHUNK_SIZE < complete ? nextLineStart(channel, start + CHUNK_SIZE) : complete;
+                chunks.add(new Chunk(file, start, end));
+                start = end;
+            }
+            if (complete < size) {
+                chunks.add(new Chunk(file, complete, size));
+            }
+            offsets.put(file, complete);
+        }
+        return chunks;
+    }
+
+    // the position just past the last line break before size, or 0
+    private static long lastLineStart(FileChannel channel, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = size;
+        while (position > 0) {
+            int length = (int) Math.min(buffer.capacity(), position);
+            buffer.clear().limit(length);
+            for (int read = 0; read < length; ) {
+                int count = channel.read(buffer, position - length + read);
+                if (count < 0) {
+                    break;
+                }
+                read += count;
+            }
+            for (int i = length - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return position - length + i + 1;
+                }
+            }
+            position -= length;
+        }
+        return 0;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long size = channel.size();
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private LogStore parse(Chunk chunk) throws IOException {
+        long start = metrics.enabled ? System.nanoTime() : 0;
+        LogStore batch = new LogStore();
+        LogLineParser parser = new LogLineParser(batch, dateDecoder);
+        try (FileChannel channel = FileChannel.open(chunk.file, StandardOpenOption.READ)) {
+            parser.parse(channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start));
+        }
+        if (metrics.enabled) {
+            metrics.ingested(chunk.file, chunk.end - chunk.start, parser, start);
+        }
+        return batch;
+    }
+
+    private LogStore parseCompressed(Path file) throws IOException {
+        long start = metrics.enabled ? System.nanoTime() : 0;
+        LogStore batch = new LogStore();
+        LogLineParser parser = new LogLineParser(batch, dateDecoder);
+        CompressedLog.parse(file, parser);
+        if (metrics.enabled) {
+            metrics.ingested(file, Files.size(file), parser, start);
+        }
+        return batch;
+    }
+
+    private static class Chunk {
+        private final Path file;
+        private final long start;
+        private final long end;
+
+        private Chunk(Path file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
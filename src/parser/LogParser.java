@@ -1,39 +1,252 @@
 package parser;
 
 
+import parser.index.Bitmap;
+import parser.index.HyperLogLog;
 import parser.query.*;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Path;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class LogParser implements IPQuery, UserQuery, DateQuery, EventQuery, QLQuery, AutoCloseable, LogParserMXBean {
+    // default total number of elements of the cached query results, 0 disables the cache
+    private static final long RESULT_CACHE_CAPACITY = 1 << 20;
+    // numbers the MBeans of the parsers, several of which may read the same logDir
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
 
-public class LogParser implements IPQuery, UserQuery, DateQuery, EventQuery, QLQuery {
     private final Path logDir;
-    private final DateFormat dateFormat = new SimpleDateFormat("d.M.yyyy H:m:s");
-    private final List<LogEntity> entities;
+    private final int parallelism;
+    // the parser reads the log files whose names hash to shard, see ShardCoordinator
+    private final int shard;
+    private final int shards;
+    private final TimeZone timeZone = TimeZone.getDefault();
+    private final DateDecoder dateDecoder = new DateDecoder(timeZone);
+    private final QueryCompiler queryCompiler = new QueryCompiler(dateDecoder);
+    private final ResultCache cache = new ResultCache(Long.getLong("parser.resultCacheCapacity", RESULT_CACHE_CAPACITY));
+    private final Metrics metrics = new Metrics(Boolean.getBoolean("parser.metrics"));
+    // with -Dparser.storage=offheap the rows are read from the mapped snapshot file, see SnapshotFile
+    private final boolean offHeap = "offheap".equals(System.getProperty("parser.storage"));
+    private final IpTable ipTable = new IpTable();
+    private final SymbolTable userTable = new SymbolTable();
+    private final Map<Path, Long> offsets = new ConcurrentHashMap<>();
+    // lengths of the files whose last segment holds a last line without a line break, see LogLoader
+    private final Map<Path, Long> tails = new ConcurrentHashMap<>();
+    private final SnapshotFile snapshotFile;
+    private volatile LogSnapshot snapshot;
+    // set when tailed rows are published, so that close saves them
+    private volatile boolean changed;
+    private LogTailer tailer;
+    private Thread tailerThread;
+    private ObjectName objectName;
 
 
     public LogParser(Path logDir) {
+        this(logDir, Runtime.getRuntime().availableProcessors());
+    }
+
+    public LogParser(Path logDir, int parallelism) {
+        this(logDir, parallelism, 0, 1);
+    }
+
+    LogParser(Path logDir, int parallelism, int shard, int shards) {
         this.logDir = logDir;
-        this.entities = new ArrayList<>();
+        this.parallelism = parallelism;
+        this.shard = shard;
+        this.shards = shards;
+        String snapshotName = shards == 1 ? SnapshotFile.NAME : "logparser-" + shard + "-of-" + shards + ".snapshot";
+        this.snapshotFile = new SnapshotFile(logDir, snapshotName, timeZone, offHeap);
+        long start = metrics.enabled ? System.nanoTime() : 0;
         getAllEntities();
+        if (metrics.enabled) {
+            metrics.method("load", start, snapshot.segments.length);
+            register();
+        }
+    }
+
+    // Starts following logDir: lines appended to the log files, and new log files, become
+    // visible to queries within seconds. Each query sees a consistent snapshot of the data.
+    public synchronized void follow() {
+        if (tailerThread == null) {
+            tailer = newTailer();
+            tailerThread = new Thread(tailer, "LogParser tail " + logDir);
+            tailerThread.setDaemon(true);
+            tailerThread.start();
+        }
+    }
+
+    // a tailer over the tables and offsets of this parser; follow runs one on its own thread
+    LogTailer newTailer() {
+        return new LogTailer(this, logDir, dateDecoder, ipTable, userTable, offsets, tails, metrics);
+    }
+
+    // Stops following and saves rows tailed since the start to the snapshot file.
+    @Override
+    public synchronized void close() throws IOException {
+        if (tailerThread != null) {
+            tailerThread.interrupt();
+            tailer.stop();
+            try {
+                tailerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            tailerThread = null;
+        }
+        if (changed) {
+            snapshotFile.write(snapshot, ipTable, userTable, offsets, tails);
+            changed = false;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+            objectName = null;
+        }
+    }
+
+    // exposes getMetrics and getCacheStats over JMX as parser:type=LogParser,name=<logDir>,id=<n>
+    private void register() {
+        try {
+            objectName = new ObjectName("parser:type=LogParser,name=" + ObjectName.quote(logDir.toString()) + ",id=" + INSTANCES.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            objectName = null;
+            e.printStackTrace();
+        }
+    }
+
+    // the log files of logDir that belong to the shard of the parser
+    List<Path> files() throws IOException {
+        List<Path> files = LogLoader.files(logDir);
+        if (shards > 1) {
+            files.removeIf(file -> Math.floorMod(file.getFileName().toString().hashCode(), shards) != shard);
+        }
+        return files;
+    }
+
+    LogSnapshot snapshot() {
+        return snapshot;
+    }
+
+    // publishes a snapshot with new rows dated within [minDate, maxDate]
+    void publish(LogSnapshot snapshot, long minDate, long maxDate) {
+        this.snapshot = snapshot;
+        cache.invalidate(minDate, maxDate);
+        changed = true;
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    // Ingest counters, latency histograms and rows scanned by queries, recorded when the parser
+    // runs with -Dparser.metrics=true; otherwise empty. The same runs also emit the parser.Ingest
+    // and parser.Query JFR events.
+    @Override
+    public ParserMetrics getMetrics() {
+        return metrics.snapshot();
+    }
+
+    // the cached result of a query method, timed under the method name when metrics are enabled
+    private <T> T cached(List<Object> key, long after, long before, Supplier<T> query) {
+        if (!metrics.enabled) {
+            return cache.get(key, after, before, query);
+        }
+        long start = System.nanoTime();
+        T result = cache.get(key, after, before, query);
+        metrics.method((String) key.get(0), start, size(result));
+        return result;
+    }
+
+    private static int size(Object result) {
+        if (result instanceof Collection) {
+            return ((Collection<?>) result).size();
+        }
+        if (result instanceof long[]) {
+            return ((long[]) result).length;
+        }
+        return result instanceof Map ? ((Map<?, ?>) result).size() : 1;
+    }
+
+    // cache key of a query; dates are keyed by their time since callers may modify them
+    private static List<Object> key(Object... parts) {
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i] instanceof Date) {
+                parts[i] = ((Date) parts[i]).getTime();
+            }
+        }
+        return Arrays.asList(parts);
     }
 
     public boolean isBetweenDates (Date current, Date after, Date before) {
-        if (after == null) {
-            after = new Date(0);
+        return isBetweenDates(current.getTime(), lowerBound(after), upperBound(before));
+    }
+
+    private static boolean isBetweenDates(long current, long after, long before) {
+        return current > after && current < before;
+    }
+
+    private static long lowerBound(Date after) {
+        return after == null ? 0 : after.getTime();
+    }
+
+    // like getAllUsers, "get user" (and "get count user") without a filter or dates is not limited
+    // to dates after the epoch
+    private static long lowerBound(QueryPlan plan) {
+        if (plan.select == QueryPlan.Field.USER && (plan.aggregate == null || plan.aggregate == QueryPlan.Aggregate.COUNT)
+                && plan.filter == null && plan.after == null && plan.before == null) {
+            return Long.MIN_VALUE;
+        }
+        return lowerBound(plan.after);
+    }
+
+    private static long upperBound(Date before) {
+        return before == null ? Long.MAX_VALUE : before.getTime();
+    }
+
+    // rows of the bitmap within the segment that are strictly between the bounds
+    private Bitmap.Cursor rows(Segment segment, Bitmap bitmap, long after, long before) {
+        int from = segment.firstAfter(after), to = segment.firstNotBefore(before);
+        if (metrics.enabled) {
+            metrics.rows(to - from, bitmap.cardinality(from, to));
         }
-        if (before == null) {
-            before = new Date(Long.MAX_VALUE);
+        return bitmap.cursor(from, to);
+    }
+
+    // rows of the segment exactly at the date, or none when the date is outside the bounds
+    private int[] rowsAt(Segment segment, long date, long after, long before) {
+        int from = segment.firstNotBefore(date);
+        int to = isBetweenDates(date, after, before) ? segment.firstAfter(date) : from;
+        if (metrics.enabled) {
+            metrics.rows(to - from, to - from);
         }
-        return current.after(after) && current.before(before);
+        return new int[]{from, to};
+    }
+
+    // the first row of the segment strictly after the date, counting the rows up to end as
+    // scanned and matched
+    private int scanFrom(Segment segment, long after, int end) {
+        int from = segment.firstAfter(after);
+        if (metrics.enabled) {
+            metrics.rows(end - from, end - from);
+        }
+        return from;
     }
 
     @Override
@@ -41,350 +254,495 @@ public class LogParser implements IPQuery, UserQuery, DateQuery, EventQuery, QLQ
         return getUniqueIPs(after, before).size();
     }
 
+    // Estimated number of distinct IPs between the dates, see getApproxNumberOfUsers.
+    public int getApproxNumberOfUniqueIPs(Date after, Date before) {
+        return approxDistinct(true, after, before, DaySketches.PRECISION);
+    }
+
+    public int getApproxNumberOfUniqueIPs(Date after, Date before, double relativeError) {
+        return approxDistinct(true, after, before, Math.min(DaySketches.PRECISION, HyperLogLog.precisionFor(relativeError)));
+    }
+
+    private int approxDistinct(boolean ips, Date after, Date before, int precision) {
+        return cached(key("approxDistinct", ips, precision, after, before), lowerBound(after), upperBound(before),
+                () -> approxDistinct(snapshot, ips, lowerBound(after), upperBound(before), precision));
+    }
+
+    private static int approxDistinct(LogSnapshot snapshot, boolean ips, long from, long to, int precision) {
+        HyperLogLog sketch = new HyperLogLog(precision);
+        for (Segment segment : snapshot.load(from, to)) {
+            segment.sketches.addTo(sketch, ips, segment.firstAfter(from), segment.firstNotBefore(to));
+        }
+        return (int) sketch.estimate();
+    }
+
+    // Unchanged files are taken from the snapshot file, the others are parsed and the snapshot
+    // file is rewritten.
     private void getAllEntities() {
-        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(logDir)) {
-            for (Path file : directoryStream) {
-                if (file.toString().toLowerCase().endsWith(".log")) {
-                    try (BufferedReader reader = new BufferedReader(new FileReader(file.toFile()))) {
-                        while (reader.ready()) {
-                            String[] params = reader.readLine().split("\\t");
-                            Date date = dateFormat.parse(params[2]);
-                            String[] taskAndTaskNum = params[3].split(" ");
-                            entities.add(new LogEntity(params[0], params[1], date, Event.valueOf(taskAndTaskNum[0]), taskAndTaskNum.length > 1 ? Integer.parseInt(taskAndTaskNum[1]) : -1, Status.valueOf(params[4])));
-                        }
-                    } catch (IOException | ParseException e) {
+        Map<Path, List<SegmentHandle>> stored = snapshotFile.read(ipTable, userTable, offsets, tails);
+        List<Path> files = new ArrayList<>();
+        try {
+            files = files();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        List<SegmentHandle> segments = new ArrayList<>();
+        List<Path> modified = new ArrayList<>();
+        for (Path file : files) {
+            if (stored.containsKey(file)) {
+                segments.addAll(stored.get(file));
+            } else {
+                modified.add(file);
+            }
+        }
+        LogLoader loader = new LogLoader(parallelism, dateDecoder, ipTable, userTable, metrics);
+        if (offHeap) {
+            // a few files at a time, spilled before the next ones are parsed
+            for (int from = 0; from < modified.size(); from += parallelism) {
+                for (Segment segment : loader.load(modified.subList(from, Math.min(modified.size(), from + parallelism)), offsets, tails)) {
+                    try {
+                        segments.add(snapshotFile.spill(segment));
+                    } catch (IOException e) {
                         e.printStackTrace();
+                        segments.add(new SegmentHandle(segment));
                     }
                 }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+        } else {
+            for (Segment segment : loader.load(modified, offsets, tails)) {
+                segments.add(new SegmentHandle(segment));
+            }
+        }
+        segments.sort(Comparator.comparing(segment -> segment.source));
+        snapshot = new LogSnapshot(segments);
+        if (!modified.isEmpty() || stored.size() != snapshotFile.storedFiles()) {
+            List<SegmentHandle> written = snapshotFile.write(snapshot, ipTable, userTable, offsets, tails);
+            if (written != null) {
+                snapshot = new LogSnapshot(written);
+            }
         }
+        snapshotFile.deleteSpill();
     }
 
+    private Set<String> ipsOf(BitSet ids) {
+        Set<String> ips = new HashSet<>();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            ips.add(ipTable.valueOf(id));
+        }
+        return ips;
+    }
+
+    private Set<String> usersOf(BitSet ids) {
+        Set<String> users = new HashSet<>();
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            users.add(userTable.valueOf(id));
+        }
+        return users;
+    }
+
+    private static Set<Event> eventsOf(int mask) {
+        Set<Event> events = new HashSet<>();
+        for (Event event : LogStore.EVENTS) {
+            if ((mask & (1 << event.ordinal())) != 0) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    private static Set<Status> statusesOf(int mask) {
+        Set<Status> statuses = new HashSet<>();
+        for (Status status : LogStore.STATUSES) {
+            if ((mask & (1 << status.ordinal())) != 0) {
+                statuses.add(status);
+            }
+        }
+        return statuses;
+    }
 
     @Override
     public Set<String> getUniqueIPs(Date after, Date before) {
-        Set<String> ips = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before)) {
-                ips.add(entity.getIp());
+        return cached(key("getUniqueIPs", after, before), lowerBound(after), upperBound(before), () -> {
+            long from = lowerBound(after), to = upperBound(before);
+            BitSet ips = new BitSet();
+            for (SegmentHandle handle : snapshot.segments) {
+                if (handle.within(from, to)) {
+                    for (int id : handle.ips) {
+                        ips.set(id);
+                    }
+                } else if (handle.overlaps(from, to)) {
+                    Segment segment = handle.segment();
+                    for (int end = segment.firstNotBefore(to), i = scanFrom(segment, from, end); i < end; i++) {
+                        ips.set(segment.ip(i));
+                    }
+                }
             }
-        }
-        return ips;
+            return ipsOf(ips);
+        });
     }
 
 
     @Override
     public Set<String> getIPsForUser(String user, Date after, Date before) {
-        Set<String> ips = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getName().equals(user) && isBetweenDates(entity.getDate(), after, before))  {
-                ips.add(entity.getIp());
+        return cached(key("getIPsForUser", user, after, before), lowerBound(after), upperBound(before), () -> {
+            int userId = userTable.idOf(user);
+            long from = lowerBound(after), to = upperBound(before);
+            BitSet ips = new BitSet();
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasUser(userId))) {
+                Bitmap.Cursor rows = rows(segment, segment.index.user(userId), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    ips.set(segment.ip(row));
+                }
             }
-        }
-        return ips;
+            return ipsOf(ips);
+        });
     }
 
     public Set<String> getIPsForDate(Date currentDate, Date after, Date before) {
-        Set<String> ips = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getDate().getTime() == currentDate.getTime() && isBetweenDates(entity.getDate(), after, before)) {
-                ips.add(entity.getIp());
+        return cached(key("getIPsForDate", currentDate, after, before), lowerBound(after), upperBound(before), () -> {
+            long current = currentDate.getTime(), from = lowerBound(after), to = upperBound(before);
+            BitSet ips = new BitSet();
+            for (Segment segment : snapshot.load(current - 1, current + 1)) {
+                int[] range = rowsAt(segment, current, from, to);
+                for (int i = range[0]; i < range[1]; i++) {
+                    ips.set(segment.ip(i));
+                }
             }
-        }
-        return ips;
+            return ipsOf(ips);
+        });
     }
 
     @Override
     public Set<String> getIPsForEvent(Event event, Date after, Date before) {
-        Set<String> ips = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getEvent().equals(event) && isBetweenDates(entity.getDate(), after, before)) {
-                ips.add(entity.getIp());
+        return cached(key("getIPsForEvent", event, after, before), lowerBound(after), upperBound(before), () -> {
+            int code = event.ordinal();
+            long from = lowerBound(after), to = upperBound(before);
+            BitSet ips = new BitSet();
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasEvent(code))) {
+                Bitmap.Cursor rows = rows(segment, segment.index.event(code), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    ips.set(segment.ip(row));
+                }
             }
-        }
-        return ips;
+            return ipsOf(ips);
+        });
     }
 
     @Override
     public Set<String> getIPsForStatus(Status status, Date after, Date before) {
-        Set<String> ips = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getEventStatus().equals(status) && isBetweenDates(entity.getDate(), after, before)) {
-                ips.add(entity.getIp());
+        return cached(key("getIPsForStatus", status, after, before), lowerBound(after), upperBound(before), () -> {
+            int code = status.ordinal();
+            long from = lowerBound(after), to = upperBound(before);
+            BitSet ips = new BitSet();
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasStatus(code))) {
+                Bitmap.Cursor rows = rows(segment, segment.index.status(code), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    ips.set(segment.ip(row));
+                }
             }
-        }
-        return ips;
+            return ipsOf(ips);
+        });
     }
 
     @Override
     public Set<String> getAllUsers() {
-        Set<String> users = new HashSet<>();
-        for (LogEntity entity : entities) {
-            users.add(entity.getName());
-        }
-        return users;
+        return cached(key("getAllUsers"), Long.MIN_VALUE, Long.MAX_VALUE, () -> {
+            BitSet users = new BitSet();
+            for (SegmentHandle segment : snapshot.segments) {
+                for (int id : segment.users) {
+                    users.set(id);
+                }
+            }
+            return usersOf(users);
+        });
     }
 
     @Override
     public int getNumberOfUsers(Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before)) {
-                users.add(entity.getName());
+        return cached(key("getNumberOfUsers", after, before), lowerBound(after), upperBound(before), () -> usersBetween(after, before).cardinality());
+    }
+
+    // the distinct users between the dates, what "get user date between" returns
+    public Set<String> getUsers(Date after, Date before) {
+        return cached(key("getUsers", after, before), lowerBound(after), upperBound(before), () -> usersOf(usersBetween(after, before)));
+    }
+
+    private BitSet usersBetween(Date after, Date before) {
+        long from = lowerBound(after), to = upperBound(before);
+        BitSet users = new BitSet();
+        for (SegmentHandle handle : snapshot.segments) {
+            if (handle.within(from, to)) {
+                for (int id : handle.users) {
+                    users.set(id);
+                }
+            } else if (handle.overlaps(from, to)) {
+                Segment segment = handle.segment();
+                for (int end = segment.firstNotBefore(to), i = scanFrom(segment, from, end); i < end; i++) {
+                    users.set(segment.user(i));
+                }
             }
         }
-        return users.size();
+        return users;
+    }
+
+    // Estimated number of distinct users between the dates, from the per day sketches. The
+    // standard error is about 0.8%; memory does not grow with the range or the cardinality.
+    public int getApproxNumberOfUsers(Date after, Date before) {
+        return approxDistinct(false, after, before, DaySketches.PRECISION);
+    }
+
+    // relativeError is the standard error to aim for; it cannot go below that of the sketches
+    public int getApproxNumberOfUsers(Date after, Date before, double relativeError) {
+        return approxDistinct(false, after, before, Math.min(DaySketches.PRECISION, HyperLogLog.precisionFor(relativeError)));
     }
 
     @Override
     public int getNumberOfUserEvents(String user, Date after, Date before) {
-        Set<Event> events = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getName().equals(user) && isBetweenDates(entity.getDate(), after, before)) {
-                events.add(entity.getEvent());
-            }
-        }
-        return events.size();
+        return getEventsForUser(user, after, before).size();
     }
 
     @Override
     public Set<String> getUsersForIP(String ip, Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getIp().equals(ip) && isBetweenDates(entity.getDate(), after, before)) {
-                users.add(entity.getName());
+        return cached(key("getUsersForIP", ip, after, before), lowerBound(after), upperBound(before), () -> {
+            int ipId = ipTable.idOf(ip);
+            long from = lowerBound(after), to = upperBound(before);
+            BitSet users = new BitSet();
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasIp(ipId))) {
+                Bitmap.Cursor rows = rows(segment, segment.index.ip(ipId), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    users.set(segment.user(row));
+                }
             }
-        }
-        return users;
+            return usersOf(users);
+        });
     }
 
     @Override
     public Set<String> getLoggedUsers(Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getEvent().equals(Event.LOGIN) && isBetweenDates(entity.getDate(), after, before)) {
-                users.add(entity.getName());
-            }
-        }
-        return users;
+        return getUsersForEvent(Event.LOGIN, after, before);
     }
 
     public Set<String> getUsersForStatus(Status status, Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before) && entity.getEventStatus().equals(status)) {
-                users.add(entity.getName());
+        return cached(key("getUsersForStatus", status, after, before), lowerBound(after), upperBound(before), () -> {
+            int code = status.ordinal();
+            long from = lowerBound(after), to = upperBound(before);
+            BitSet users = new BitSet();
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasStatus(code))) {
+                Bitmap.Cursor rows = rows(segment, segment.index.status(code), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    users.set(segment.user(row));
+                }
             }
-        }
-        return users;
+            return usersOf(users);
+        });
+    }
+
+    private Set<String> getUsersForEvent(Event event, Date after, Date before) {
+        return cached(key("getUsersForEvent", event, after, before), lowerBound(after), upperBound(before), () -> {
+            int code = event.ordinal();
+            long from = lowerBound(after), to = upperBound(before);
+            BitSet users = new BitSet();
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasEvent(code))) {
+                Bitmap.Cursor rows = rows(segment, segment.index.event(code), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    users.set(segment.user(row));
+                }
+            }
+            return usersOf(users);
+        });
+    }
+
+    private Set<String> getUsersForTask(Event event, int task, Date after, Date before) {
+        return cached(key("getUsersForTask", event, task, after, before), lowerBound(after), upperBound(before), () -> {
+            int code = event.ordinal();
+            long from = lowerBound(after), to = upperBound(before);
+            BitSet users = new BitSet();
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasEvent(code))) {
+                Bitmap.Cursor rows = rows(segment, Bitmap.and(segment.index.event(code), segment.index.task(task)), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    users.set(segment.user(row));
+                }
+            }
+            return usersOf(users);
+        });
     }
 
     @Override
     public Set<String> getDownloadedPluginUsers(Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getEvent().equals(Event.DOWNLOAD_PLUGIN) && isBetweenDates(entity.getDate(), after, before)) {
-                users.add(entity.getName());
-            }
-        }
-        return users;
+        return getUsersForEvent(Event.DOWNLOAD_PLUGIN, after, before);
     }
 
     @Override
     public Set<String> getWroteMessageUsers(Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getEvent().equals(Event.WRITE_MESSAGE) && isBetweenDates(entity.getDate(), after, before)) {
-                users.add(entity.getName());
-            }
-        }
-        return users;
+        return getUsersForEvent(Event.WRITE_MESSAGE, after, before);
     }
 
     @Override
     public Set<String> getSolvedTaskUsers(Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getEvent().equals(Event.SOLVE_TASK) && isBetweenDates(entity.getDate(), after, before)) {
-                users.add(entity.getName());
-            }
-        }
-        return users;
+        return getUsersForEvent(Event.SOLVE_TASK, after, before);
     }
 
     @Override
     public Set<String> getSolvedTaskUsers(Date after, Date before, int task) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getEvent().equals(Event.SOLVE_TASK) && entity.getEventNum() == task && isBetweenDates(entity.getDate(), after, before)) {
-                users.add(entity.getName());
-            }
-        }
-        return users;
+        return getUsersForTask(Event.SOLVE_TASK, task, after, before);
     }
 
     @Override
     public Set<String> getDoneTaskUsers(Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getEvent().equals(Event.DONE_TASK) && isBetweenDates(entity.getDate(), after, before)) {
-                users.add(entity.getName());
-            }
-        }
-        return users;
+        return getUsersForEvent(Event.DONE_TASK, after, before);
     }
 
     @Override
     public Set<String> getDoneTaskUsers(Date after, Date before, int task) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getEvent().equals(Event.DONE_TASK) && entity.getEventNum() == task && isBetweenDates(entity.getDate(), after, before)) {
-                users.add(entity.getName());
-            }
-        }
-        return users;
+        return getUsersForTask(Event.DONE_TASK, task, after, before);
     }
 
     @Override
     public Set<Date> getDatesForUserAndEvent(String user, Event event, Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before)) {
-                if ((user == null || entity.getName().equals(user)) && (event == null || entity.getEvent().equals(event))) {
-                    dates.add(entity.getDate());
+        return dates(cached(key("getDatesForUserAndEvent", user, event, after, before), lowerBound(after), upperBound(before), () -> {
+            int userId = user == null ? -1 : userTable.idOf(user);
+            int code = event == null ? -1 : event.ordinal();
+            long from = lowerBound(after), to = upperBound(before);
+            LongCounts dates = new LongCounts();
+            for (Segment segment : snapshot.load(from, to, segment -> (user == null || segment.hasUser(userId)) && (event == null || segment.hasEvent(code)))) {
+                if (user == null && event == null) {
+                    for (int end = segment.firstNotBefore(to), i = scanFrom(segment, from, end); i < end; i++) {
+                        dates.add(segment.date(i), 1);
+                    }
+                    continue;
+                }
+                if (user != null) {
+                    // a slice of the timelines of the user
+                    int first = segment.firstAfter(from), end = segment.firstNotBefore(to);
+                    int matched = segment.timelines.forEach(userId, code, first, end, row -> dates.add(segment.date(row), 1));
+                    if (metrics.enabled) {
+                        metrics.rows(matched, matched);
+                    }
+                    continue;
+                }
+                Bitmap.Cursor rows = rows(segment, segment.index.event(code), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    dates.add(segment.date(row), 1);
                 }
             }
-        }
-        return dates;
+            return dates.keys();
+        }));
     }
 
     public Set<Date> getDatesForStatus(Status status, Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before) && entity.getEventStatus().equals(status)) {
-                dates.add(entity.getDate());
+        return dates(cached(key("getDatesForStatus", status, after, before), lowerBound(after), upperBound(before), () -> {
+            int code = status.ordinal();
+            long from = lowerBound(after), to = upperBound(before);
+            LongCounts dates = new LongCounts();
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasStatus(code))) {
+                Bitmap.Cursor rows = rows(segment, segment.index.status(code), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    dates.add(segment.date(row), 1);
+                }
             }
-        }
-        return dates;
+            return dates.keys();
+        }));
     }
 
     @Override
     public Set<Date> getDatesWhenSomethingFailed(Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getEventStatus().equals(Status.FAILED) && isBetweenDates(entity.getDate(), after, before)) {
-                dates.add(entity.getDate());
-            }
-        }
-        return dates;
+        return getDatesForStatus(Status.FAILED, after, before);
     }
 
     @Override
     public Set<Date> getDatesWhenErrorHappened(Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getEventStatus().equals(Status.ERROR) && isBetweenDates(entity.getDate(), after, before)) {
-                dates.add(entity.getDate());
-            }
+        return getDatesForStatus(Status.ERROR, after, before);
+    }
+
+    // Dates are cached as their epoch millis, a Date would be shared with every caller; each call
+    // gets new Dates.
+    private static Set<Date> dates(long[] dates) {
+        Set<Date> result = new HashSet<>();
+        for (long date : dates) {
+            result.add(new Date(date));
         }
-        return dates;
+        return Collections.unmodifiableSet(result);
+    }
+
+    private Date getFirstDate(String user, Event event, int task, Date after, Date before) {
+        // cached as the epoch millis, a Date would be shared with every caller
+        long first = cached(key("getFirstDate", user, event, task, after, before), lowerBound(after), upperBound(before), () -> {
+            int userId = userTable.idOf(user);
+            int code = event.ordinal();
+            long from = lowerBound(after), to = upperBound(before);
+            long result = Long.MAX_VALUE;
+            for (SegmentHandle handle : snapshot.segments) {
+                if (!handle.overlaps(from, Math.min(to, result)) || !handle.hasUser(userId) || !handle.hasEvent(code)) {
+                    continue;
+                }
+                Segment segment = handle.segment();
+                int row = segment.timelines.first(userId, code, task, segment.firstAfter(from), segment.firstNotBefore(Math.min(to, result)));
+                if (row >= 0) {
+                    result = segment.date(row);
+                }
+            }
+            return result;
+        });
+        return first == Long.MAX_VALUE ? null : new Date(first);
     }
 
     @Override
     public Date getDateWhenUserLoggedFirstTime(String user, Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getName().equals(user) && entity.getEvent().equals(Event.LOGIN) && isBetweenDates(entity.getDate(), after, before)) {
-                dates.add(entity.getDate());
-            }
-        }
-        if (dates.size() == 0) {
-            return null;
-        }
-        return dates.stream().min(Comparator.comparingLong(Date::getTime)).get();
+        return getFirstDate(user, Event.LOGIN, LogStore.NO_TASK, after, before);
     }
 
     @Override
     public Date getDateWhenUserSolvedTask(String user, int task, Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getName().equals(user) && entity.getEvent().equals(Event.SOLVE_TASK) && entity.getEventNum() == task && isBetweenDates(entity.getDate(), after, before)) {
-                dates.add(entity.getDate());
-            }
-        }
-        if (dates.size() == 0) {
-            return null;
-        }
-        return dates.stream().min(Comparator.comparingLong(Date::getTime)).get();
+        return getFirstDate(user, Event.SOLVE_TASK, task, after, before);
     }
 
     @Override
     public Date getDateWhenUserDoneTask(String user, int task, Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getName().equals(user) && entity.getEvent().equals(Event.DONE_TASK) && entity.getEventNum() == task && isBetweenDates(entity.getDate(), after, before)) {
-                dates.add(entity.getDate());
-            }
-        }
-        if (dates.size() == 0) {
-            return null;
-        }
-        return dates.stream().min(Comparator.comparingLong(Date::getTime)).get();
+        return getFirstDate(user, Event.DONE_TASK, task, after, before);
     }
 
     @Override
     public Set<Date> getDatesWhenUserWroteMessage(String user, Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getName().equals(user) && entity.getEvent().equals(Event.WRITE_MESSAGE) && isBetweenDates(entity.getDate(), after, before)) {
-                dates.add(entity.getDate());
-            }
-        }
-        return dates;
+        return getDatesForUserAndEvent(user, Event.WRITE_MESSAGE, after, before);
     }
 
     @Override
     public Set<Date> getDatesWhenUserDownloadedPlugin(String user, Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getName().equals(user) && entity.getEvent().equals(Event.DOWNLOAD_PLUGIN) && isBetweenDates(entity.getDate(), after, before)) {
-                dates.add(entity.getDate());
-            }
-        }
-        return dates;
+        return getDatesForUserAndEvent(user, Event.DOWNLOAD_PLUGIN, after, before);
     }
     
     public Set<Date> getAllDates(Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before)) {
-                dates.add(entity.getDate());
-            }
-        }
-        return dates;
+        return getDatesForUserAndEvent(null, null, after, before);
     }
 
     public Set<Date> getDatesForIPs(String ip, Date after, Date before) {
-        Set<Date> dates = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (ip.equals(entity.getIp()) && isBetweenDates(entity.getDate(), after, before)) {
-                dates.add(entity.getDate());
+        return dates(cached(key("getDatesForIPs", ip, after, before), lowerBound(after), upperBound(before), () -> {
+            int ipId = ipTable.idOf(ip);
+            long from = lowerBound(after), to = upperBound(before);
+            LongCounts dates = new LongCounts();
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasIp(ipId))) {
+                Bitmap.Cursor rows = rows(segment, segment.index.ip(ipId), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    dates.add(segment.date(row), 1);
+                }
             }
-        }
-        return dates;
+            return dates.keys();
+        }));
     }
 
 
     public Set<String> getUsersForDate(Date currentDate, Date after, Date before) {
-        Set<String> users = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getDate().getTime() == currentDate.getTime() && isBetweenDates(entity.getDate(), after, before)) {
-                users.add(entity.getName());
+        return cached(key("getUsersForDate", currentDate, after, before), lowerBound(after), upperBound(before), () -> {
+            long current = currentDate.getTime(), from = lowerBound(after), to = upperBound(before);
+            BitSet users = new BitSet();
+            for (Segment segment : snapshot.load(current - 1, current + 1)) {
+                int[] range = rowsAt(segment, current, from, to);
+                for (int i = range[0]; i < range[1]; i++) {
+                    users.set(segment.user(i));
+                }
             }
-        }
-        return users;
+            return usersOf(users);
+        });
     }
 
     @Override
@@ -394,322 +752,421 @@ public class LogParser implements IPQuery, UserQuery, DateQuery, EventQuery, QLQ
 
     @Override
     public Set<Event> getAllEvents(Date after, Date before) {
-        Set<Event> events = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before)) {
-                events.add(entity.getEvent());
+        return cached(key("getAllEvents", after, before), lowerBound(after), upperBound(before), () -> {
+            long from = lowerBound(after), to = upperBound(before);
+            int events = 0;
+            for (SegmentHandle handle : snapshot.segments) {
+                if (handle.within(from, to)) {
+                    events |= handle.events;
+                    continue;
+                }
+                if (!handle.overlaps(from, to)) {
+                    continue;
+                }
+                Segment segment = handle.segment();
+                Rollup rollup = segment.rollup;
+                int[] counts = rollup.countKeys(segment.firstAfter(from), segment.firstNotBefore(to));
+                for (int key = 0; key < counts.length; key++) {
+                    if (counts[key] > 0) {
+                        events |= 1 << rollup.event(key);
+                    }
+                }
             }
-        }
-        return events;
+            return eventsOf(events);
+        });
     }
 
     @Override
     public Set<Event> getEventsForIP(String ip, Date after, Date before) {
-        Set<Event> events = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before) && entity.getIp().equals(ip)) {
-                events.add(entity.getEvent());
+        return cached(key("getEventsForIP", ip, after, before), lowerBound(after), upperBound(before), () -> {
+            int ipId = ipTable.idOf(ip);
+            long from = lowerBound(after), to = upperBound(before);
+            int events = 0;
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasIp(ipId))) {
+                Bitmap.Cursor rows = rows(segment, segment.index.ip(ipId), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    events |= 1 << segment.event(row);
+                }
             }
-        }
-        return events;
+            return eventsOf(events);
+        });
     }
 
     @Override
     public Set<Event> getEventsForUser(String user, Date after, Date before) {
-        Set<Event> events = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before) && entity.getName().equals(user)) {
-                events.add(entity.getEvent());
+        return cached(key("getEventsForUser", user, after, before), lowerBound(after), upperBound(before), () -> {
+            int userId = userTable.idOf(user);
+            long from = lowerBound(after), to = upperBound(before);
+            int events = 0;
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasUser(userId))) {
+                Bitmap.Cursor rows = rows(segment, segment.index.user(userId), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    events |= 1 << segment.event(row);
+                }
             }
-        }
-        return events;
+            return eventsOf(events);
+        });
     }
 
     @Override
     public Set<Event> getFailedEvents(Date after, Date before) {
-        Set<Event> events = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before) && entity.getEventStatus().equals(Status.FAILED)) {
-                events.add(entity.getEvent());
-            }
-        }
-        return events;
+        return getEventsForStatus(Status.FAILED, after, before);
     }
 
     @Override
     public Set<Event> getErrorEvents(Date after, Date before) {
-        Set<Event> events = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before) && entity.getEventStatus().equals(Status.ERROR)) {
-                events.add(entity.getEvent());
-            }
-        }
-        return events;
+        return getEventsForStatus(Status.ERROR, after, before);
     }
 
     public Set<Event> getEventsForDate(Date current, Date after, Date before) {
-        Set<Event> events = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getDate().getTime() == current.getTime() && isBetweenDates(entity.getDate(), after, before)) {
-                events.add(entity.getEvent());
+        return cached(key("getEventsForDate", current, after, before), lowerBound(after), upperBound(before), () -> {
+            long date = current.getTime(), from = lowerBound(after), to = upperBound(before);
+            int events = 0;
+            for (Segment segment : snapshot.load(date - 1, date + 1)) {
+                int[] range = rowsAt(segment, date, from, to);
+                for (int i = range[0]; i < range[1]; i++) {
+                    events |= 1 << segment.event(i);
+                }
             }
-        }
-        return events;
+            return eventsOf(events);
+        });
     }
 
     public Set<Event> getEventsForStatus(Status status, Date after, Date before) {
-        Set<Event> events = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getEventStatus().equals(status) && isBetweenDates(entity.getDate(), after, before)) {
-                events.add(entity.getEvent());
+        return cached(key("getEventsForStatus", status, after, before), lowerBound(after), upperBound(before), () -> {
+            int code = status.ordinal();
+            long from = lowerBound(after), to = upperBound(before);
+            int events = 0;
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasStatus(code))) {
+                Bitmap.Cursor rows = rows(segment, segment.index.status(code), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    events |= 1 << segment.event(row);
+                }
             }
-        }
-        return events;
+            return eventsOf(events);
+        });
+    }
+
+    private int getNumberOfTaskEvents(Event event, int task, Date after, Date before) {
+        return cached(key("getNumberOfTaskEvents", event, task, after, before), lowerBound(after), upperBound(before), () -> {
+            int code = event.ordinal();
+            long from = lowerBound(after), to = upperBound(before);
+            int result = 0;
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasEvent(code))) {
+                Rollup rollup = segment.rollup;
+                int[] counts = rollup.countKeys(segment.firstAfter(from), segment.firstNotBefore(to));
+                for (int key = 0; key < counts.length; key++) {
+                    if (rollup.event(key) == code && rollup.task(key) == task) {
+                        result += counts[key];
+                    }
+                }
+            }
+            return result;
+        });
     }
 
     @Override
     public int getNumberOfAttemptToSolveTask(int task, Date after, Date before) {
-        int result = 0;
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before) && entity.getEvent().equals(Event.SOLVE_TASK) && entity.getEventNum() == task) {
-                result++;
-            }
-        }
-        return result;
+        return getNumberOfTaskEvents(Event.SOLVE_TASK, task, after, before);
     }
 
     @Override
     public int getNumberOfSuccessfulAttemptToSolveTask(int task, Date after, Date before) {
-        int result = 0;
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before) && entity.getEvent().equals(Event.DONE_TASK) && entity.getEventNum() == task) {
-                result++;
+        return getNumberOfTaskEvents(Event.DONE_TASK, task, after, before);
+    }
+
+    // the rows per task of the event, what "get top <n> task by event" ranks
+    private Map<Integer, Integer> getTasksAndTheirNumber(Event event, Date after, Date before) {
+        return cached(key("getTasksAndTheirNumber", event, after, before), lowerBound(after), upperBound(before), () -> {
+            QueryPlan plan = new QueryPlan(QueryPlan.Aggregate.TOP, QueryPlan.Field.TASK, QueryPlan.Field.EVENT, event, after, before, null, Integer.MAX_VALUE);
+            LongCounts counts = aggregation().count(plan, lowerBound(after), upperBound(before));
+            Map<Integer, Integer> tasks = new HashMap<>();
+            for (int slot = 0; slot < counts.capacity(); slot++) {
+                if (counts.used(slot)) {
+                    tasks.put((int) counts.key(slot), counts.count(slot));
+                }
             }
-        }
-        return result;
+            return tasks;
+        });
     }
 
     @Override
     public Map<Integer, Integer> getAllSolvedTasksAndTheirNumber(Date after, Date before) {
-        Map<Integer, Integer> tasks = new HashMap<>();
-        int eventNum;
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before) && entity.getEvent().equals(Event.SOLVE_TASK)) {
-                eventNum = entity.getEventNum();
-                if (tasks.containsKey(eventNum)) {
-                    tasks.put(eventNum, tasks.get(eventNum) + 1);
-                } else {
-                    tasks.put(eventNum, 1);
-                }
-            }
-        }
-        return tasks;
+        return getTasksAndTheirNumber(Event.SOLVE_TASK, after, before);
     }
 
     @Override
     public Map<Integer, Integer> getAllDoneTasksAndTheirNumber(Date after, Date before) {
-        Map<Integer, Integer> tasks = new HashMap<>();
-        int eventNum;
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before) && entity.getEvent().equals(Event.DONE_TASK)) {
-                eventNum = entity.getEventNum();
-                if (tasks.containsKey(eventNum)) {
-                    tasks.put(eventNum, tasks.get(eventNum) + 1);
-                } else {
-                    tasks.put(eventNum, 1);
-                }
-            }
-        }
-        return tasks;
+        return getTasksAndTheirNumber(Event.DONE_TASK, after, before);
     }
     
     public Set<Status> getAllStatuses(Date after, Date before) {
-        Set<Status> statuses = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (isBetweenDates(entity.getDate(), after, before)) {
-                statuses.add(entity.getEventStatus());
+        return cached(key("getAllStatuses", after, before), lowerBound(after), upperBound(before), () -> {
+            long from = lowerBound(after), to = upperBound(before);
+            int statuses = 0;
+            for (SegmentHandle handle : snapshot.segments) {
+                if (handle.within(from, to)) {
+                    statuses |= handle.statuses;
+                } else if (handle.overlaps(from, to)) {
+                    Segment segment = handle.segment();
+                    for (int end = segment.firstNotBefore(to), i = scanFrom(segment, from, end); i < end; i++) {
+                        statuses |= 1 << segment.status(i);
+                    }
+                }
             }
-        }
-        return statuses;
+            return statusesOf(statuses);
+        });
     }
 
 
 
     public Set<Status> getStatusesForIp(String ip, Date after, Date before) {
-        Set<Status> statuses = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getIp().equals(ip) && isBetweenDates(entity.getDate(), after, before)) {
-                statuses.add(entity.getEventStatus());
+        return cached(key("getStatusesForIp", ip, after, before), lowerBound(after), upperBound(before), () -> {
+            int ipId = ipTable.idOf(ip);
+            long from = lowerBound(after), to = upperBound(before);
+            int statuses = 0;
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasIp(ipId))) {
+                Bitmap.Cursor rows = rows(segment, segment.index.ip(ipId), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    statuses |= 1 << segment.status(row);
+                }
             }
-        }
-        return statuses;
+            return statusesOf(statuses);
+        });
     }
 
     public Set<Status> getStatusesForUser(String user, Date after, Date before) {
-        Set<Status> statuses = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getName().equals(user) && isBetweenDates(entity.getDate(), after, before)) {
-                statuses.add(entity.getEventStatus());
+        return cached(key("getStatusesForUser", user, after, before), lowerBound(after), upperBound(before), () -> {
+            int userId = userTable.idOf(user);
+            long from = lowerBound(after), to = upperBound(before);
+            int statuses = 0;
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasUser(userId))) {
+                Bitmap.Cursor rows = rows(segment, segment.index.user(userId), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    statuses |= 1 << segment.status(row);
+                }
             }
-        }
-        return statuses;
+            return statusesOf(statuses);
+        });
     }
 
     public Set<Status> getStatusesForDate(Date currentDate, Date after, Date before) {
-        Set<Status> statuses = new HashSet<>();
-        for (LogEntity entity: entities) {
-            if (entity.getDate().getTime() == currentDate.getTime() && isBetweenDates(entity.getDate(), after, before)) {
-                statuses.add(entity.getEventStatus());
+        return cached(key("getStatusesForDate", currentDate, after, before), lowerBound(after), upperBound(before), () -> {
+            long current = currentDate.getTime(), from = lowerBound(after), to = upperBound(before);
+            int statuses = 0;
+            for (Segment segment : snapshot.load(current - 1, current + 1)) {
+                int[] range = rowsAt(segment, current, from, to);
+                for (int i = range[0]; i < range[1]; i++) {
+                    statuses |= 1 << segment.status(i);
+                }
             }
-        }
-        return statuses;
+            return statusesOf(statuses);
+        });
     }
 
     public Set<Status> getStatusesForEvent(Event event, Date after, Date before) {
-        Set<Status> statuses = new HashSet<>();
-        for (LogEntity entity : entities) {
-            if (entity.getEvent().equals(event) && isBetweenDates(entity.getDate(), after, before)) {
-                statuses.add(entity.getEventStatus());
+        return cached(key("getStatusesForEvent", event, after, before), lowerBound(after), upperBound(before), () -> {
+            int code = event.ordinal();
+            long from = lowerBound(after), to = upperBound(before);
+            int statuses = 0;
+            for (Segment segment : snapshot.load(from, to, segment -> segment.hasEvent(code))) {
+                Bitmap.Cursor rows = rows(segment, segment.index.event(code), from, to);
+                for (int row = rows.next(); row >= 0; row = rows.next()) {
+                    statuses |= 1 << segment.status(row);
+                }
             }
-        }
-        return statuses;
+            return statusesOf(statuses);
+        });
     }
 
     @Override
     public Set<Object> execute(String query) throws ParseException {
-        Set result = null;
-        String param = null;
-        Date after = null;
-        Date before = null;
-        if (query.contains("=")) {
-            int firstQuote = query.indexOf("\"");
-            int secondQuote = query.indexOf("\"", firstQuote + 1);
-            param = query.substring(firstQuote + 1, secondQuote);
-        }
-        if (query.contains("date between")) {
-            String[] strings = query.split("date between");
-            strings = strings[1].split("\"");
-            after = dateFormat.parse(strings[1]);
-            before = dateFormat.parse(strings[3]);
-        }
-        if (query.startsWith("get ip")) {
-            if (!query.contains("for")) {
-                result = getUniqueIPs(after, before);
-            } else if (query.contains("user")) {
-                result = getIPsForUser(param, after, before);
-            } else if (query.contains("for date")) {
-                result = getIPsForDate(dateFormat.parse(param), after, before);
-            } else if (query.contains("event")) {
-                result = getIPsForEvent(Event.valueOf(param), after, before);
-            } else if (query.contains("status")) {
-                result = getIPsForStatus(Status.valueOf(param), after, before);
-            }
-        } else if (query.startsWith("get user")) {
-            if (!query.contains("for")) {
-                result = getAllUsers();
-            } else if (query.contains("ip")) {
-                result = getUsersForIP(param, after, before);
-            } else if (query.contains("for date")) {
-                result = getUsersForDate(dateFormat.parse(param), after, before);
-            } else if (query.contains("event")) {
-                Event event = Event.valueOf(param);
-                if (Event.DONE_TASK.equals(event)) {
-                    result = getDoneTaskUsers(after, before);
-                }
-                if (Event.LOGIN.equals(event)) {
-                    result = getLoggedUsers(after, before);
-                }
-                if (Event.DOWNLOAD_PLUGIN.equals(event)) {
-                    result = getDownloadedPluginUsers(after, before);
-                }
-                if (Event.SOLVE_TASK.equals(event)) {
-                    result = getSolvedTaskUsers(after, before);
-                }
-                if (Event.WRITE_MESSAGE.equals(event)) {
-                    result = getWroteMessageUsers(after, before);
-                }
-            } else if (query.contains("status")) {
-                result = getUsersForStatus(Status.valueOf(param), after, before);
-            }
-        } else if (query.startsWith("get date")) {
-            if (!query.contains("for")) {
-                result = getAllDates(after, before);
-            } else if (query.contains("ip")) {
-                result = getDatesForIPs(param, after, before);
-            } else if (query.contains("user")) {
-                result = getDatesForUserAndEvent(param, null, after, before);
-            } else if (query.contains("event")) {
-                result = getDatesForUserAndEvent(null, Event.valueOf(param), after, before);
-            } else if (query.contains("status")) {
-                result = getDatesForStatus(Status.valueOf(param), after, before);
-            }
-        } else if (query.startsWith("get event")) {
-            if (!query.contains("for")) {
-                result = getAllEvents(after, before);
-            } else if (query.contains("ip")) {
-                result = getEventsForIP(param, after, before);
-            } else if (query.contains("user")) {
-                result = getEventsForUser(param, after, before);
-            } else if (query.contains("for date")) {
-                result = getEventsForDate(dateFormat.parse(param), after, before);
-            } else if (query.contains("status")) {
-                result = getEventsForStatus(Status.valueOf(param), after, before);
-            }
-        } else if (query.startsWith("get status")) {
-            if (!query.contains("for")) {
-                result = getAllStatuses(after, before);
-            } else if (query.contains("ip")) {
-                result = getStatusesForIp(param, after, before);
-            } else if (query.contains("user")) {
-                result = getStatusesForUser(param, after, before);
-            } else if (query.contains("for date")) {
-                result = getStatusesForDate(dateFormat.parse(param), after, before);
-            } else if (query.contains("event")) {
-                result = getStatusesForEvent(Event.valueOf(param), after, before);
-            }
+        if (!metrics.enabled) {
+            return execute(queryCompiler.compile(query));
         }
+        long start = System.nanoTime();
+        QueryPlan plan = queryCompiler.compile(query);
+        Set<Object> result = execute(plan);
+        metrics.query(Metrics.shape(plan), start, result.size());
         return result;
     }
 
-    public class LogEntity {
-        private final String ip;
-        private final String name;
-        private final Date date;
-        private final Event event;
-        private final int eventNum;
-        private final Status eventStatus;
-
-        public LogEntity(String ip, String name, Date date, Event event, int eventNum, Status eventStatus) {
-            this.ip = ip;
-            this.name = name;
-            this.date = date;
-            this.event = event;
-            this.eventNum = eventNum;
-            this.eventStatus = eventStatus;
+    // The distinct values of a query, produced lazily: a short-circuiting stream (limit, findFirst,
+    // anyMatch) stops scanning as soon as it is satisfied. Not cached.
+    public Stream<Object> executeStream(String query) throws ParseException {
+        QueryPlan plan = queryCompiler.compile(query);
+        if (plan.aggregate != null) {
+            return execute(plan).stream();
         }
+        return StreamSupport.stream(new ResultSpliterator(snapshot, plan, ipTable, userTable, lowerBound(plan), upperBound(plan.before)), false);
+    }
 
-        public String getIp() {
-            return ip;
+    // Results of several queries, in order. Instead of one scan per query, the segments that any
+    // of the queries may match are read once, and every row in the union of their date ranges is
+    // tested against all of them. Approximate counts come from the sketches. All the queries see
+    // the same snapshot. Not cached.
+    public List<Set<Object>> execute(List<String> queries) throws ParseException {
+        long start = metrics.enabled ? System.nanoTime() : 0;
+        LogSnapshot snapshot = this.snapshot;
+        List<QueryPlan> plans = new ArrayList<>();
+        for (String query : queries) {
+            plans.add(queryCompiler.compile(query));
         }
-
-        public String getName() {
-            return name;
+        long[] afters = new long[plans.size()];
+        long[] befores = new long[plans.size()];
+        for (int i = 0; i < plans.size(); i++) {
+            afters[i] = lowerBound(plans.get(i));
+            befores[i] = upperBound(plans.get(i).before);
         }
-
-        public Date getDate() {
-            return date;
+        BatchScan scan = new BatchScan(plans, afters, befores, ipTable, userTable);
+        scan.scan(snapshot);
+        Aggregation aggregation = new Aggregation(snapshot, ipTable, userTable, metrics);
+        List<Set<Object>> results = new ArrayList<>();
+        for (int i = 0; i < plans.size(); i++) {
+            QueryPlan plan = plans.get(i);
+            Set<Object> result;
+            if (plan.aggregate == QueryPlan.Aggregate.APPROX_COUNT) {
+                result = Collections.singleton(approxDistinct(snapshot, plan.select == QueryPlan.Field.IP, afters[i], befores[i], DaySketches.PRECISION));
+            } else if (plan.aggregate != null) {
+                result = aggregation.result(plan, afters[i], befores[i]);
+            } else {
+                result = scan.result(i);
+            }
+            results.add(Collections.unmodifiableSet(result));
         }
-
-        public Event getEvent() {
-            return event;
+        if (metrics.enabled) {
+            metrics.query("batch", start, results.size());
         }
+        return results;
+    }
+
+    // A page of the distinct values of a query; scans only until offset + limit values are found.
+    public List<Object> execute(String query, long offset, long limit) throws ParseException {
+        return executeStream(query).skip(offset).limit(limit).collect(Collectors.toList());
+    }
 
-        public int getEventNum() {
-            return eventNum;
+    // Dates of all rows strictly between after and before, in date order per segment. The stream
+    // splits evenly for parallel use and does not create Date objects.
+    public LongStream getTimestamps(Date after, Date before) {
+        long from = lowerBound(after), to = upperBound(before);
+        Segment[] segments = snapshot.load(from, to).toArray(new Segment[0]);
+        int[] starts = new int[segments.length];
+        int[] ends = new int[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            starts[i] = segments[i].firstAfter(from);
+            // an empty slice, not a negative one, when before is not later than after
+            ends[i] = Math.max(starts[i], segments[i].firstNotBefore(to));
         }
+        return StreamSupport.longStream(new TimestampSpliterator(segments, starts, ends), false);
+    }
+
+    private Aggregation aggregation() {
+        return new Aggregation(snapshot, ipTable, userTable, metrics);
+    }
+
+    // What this parser, as a shard of a ShardCoordinator, contributes to a count, group by or top
+    // query, see Aggregation.partial.
+    Object partial(String query) throws ParseException {
+        QueryPlan plan = queryCompiler.compile(query);
+        return aggregation().partial(plan, lowerBound(plan), upperBound(plan.before));
+    }
+
+    // The result of a plan, as the typed execute methods return it. The sets of the query methods
+    // are only read, so a Set<Date> or Set<Event> can be handed out as a Set<Object>.
+    @SuppressWarnings("unchecked")
+    private Set<Object> execute(QueryPlan plan) {
+        return (Set<Object>) result(plan);
+    }
 
-        public Status getEventStatus() {
-            return eventStatus;
+    private Set<?> result(QueryPlan plan) {
+        Date after = plan.after;
+        Date before = plan.before;
+        Object value = plan.value;
+        if (plan.aggregate == QueryPlan.Aggregate.APPROX_COUNT) {
+            return Collections.singleton(plan.select == QueryPlan.Field.IP ? getApproxNumberOfUniqueIPs(after, before) : getApproxNumberOfUsers(after, before));
+        }
+        if (plan.aggregate != null) {
+            Set<Object> result = cached(key("aggregate", plan.aggregate, plan.select, plan.group, plan.filter, plan.value, plan.limit, after, before),
+                    lowerBound(plan), upperBound(before), () -> aggregation().result(plan, lowerBound(plan), upperBound(before)));
+            return plan.select == QueryPlan.Field.DATE || plan.group == QueryPlan.Field.DATE ? Aggregation.copyDates(result) : result;
+        }
+        switch (plan.select) {
+            case IP:
+                if (plan.filter == null) {
+                    return getUniqueIPs(after, before);
+                }
+                switch (plan.filter) {
+                    case USER:
+                        return getIPsForUser((String) value, after, before);
+                    case DATE:
+                        return getIPsForDate((Date) value, after, before);
+                    case EVENT:
+                        return getIPsForEvent((Event) value, after, before);
+                    case STATUS:
+                        return getIPsForStatus((Status) value, after, before);
+                }
+                break;
+            case USER:
+                if (plan.filter == null) {
+                    return after == null && before == null ? getAllUsers() : getUsers(after, before);
+                }
+                switch (plan.filter) {
+                    case IP:
+                        return getUsersForIP((String) value, after, before);
+                    case DATE:
+                        return getUsersForDate((Date) value, after, before);
+                    case EVENT:
+                        return getUsersForEvent((Event) value, after, before);
+                    case STATUS:
+                        return getUsersForStatus((Status) value, after, before);
+                }
+                break;
+            case DATE:
+                if (plan.filter == null) {
+                    return getAllDates(after, before);
+                }
+                switch (plan.filter) {
+                    case IP:
+                        return getDatesForIPs((String) value, after, before);
+                    case USER:
+                        return getDatesForUserAndEvent((String) value, null, after, before);
+                    case EVENT:
+                        return getDatesForUserAndEvent(null, (Event) value, after, before);
+                    case STATUS:
+                        return getDatesForStatus((Status) value, after, before);
+                }
+                break;
+            case EVENT:
+                if (plan.filter == null) {
+                    return getAllEvents(after, before);
+                }
+                switch (plan.filter) {
+                    case IP:
+                        return getEventsForIP((String) value, after, before);
+                    case USER:
+                        return getEventsForUser((String) value, after, before);
+                    case DATE:
+                        return getEventsForDate((Date) value, after, before);
+                    case STATUS:
+                        return getEventsForStatus((Status) value, after, before);
+                }
+                break;
+            case STATUS:
+                if (plan.filter == null) {
+                    return getAllStatuses(after, before);
+                }
+                switch (plan.filter) {
+                    case IP:
+                        return getStatusesForIp((String) value, after, before);
+                    case USER:
+                        return getStatusesForUser((String) value, after, before);
+                    case DATE:
+                        return getStatusesForDate((Date) value, after, before);
+                    case EVENT:
+                        return getStatusesForEvent((Event) value, after, before);
+                }
+                break;
         }
+        throw new IllegalStateException("Unsupported plan: get " + plan.select.keyword + " for " + plan.filter.keyword);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,9 @@
+package parser;
+
+// Management interface of a LogParser, registered with the platform MBean server when the parser
+// runs with -Dparser.metrics=true.
+public interface LogParserMXBean {
+    ParserMetrics getMetrics();
+
+    CacheStats getCacheStats();
+}
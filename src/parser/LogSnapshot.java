@@ -0,0 +1,84 @@
+package parser;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+// Immutable set of segments that queries run against; appends publish a new snapshot.
+class LogSnapshot {
+    final SegmentHandle[] segments;
+
+    LogSnapshot(List<SegmentHandle> segments) {
+        this(segments.toArray(new SegmentHandle[0]));
+    }
+
+    private LogSnapshot(SegmentHandle[] segments) {
+        this.segments = segments;
+    }
+
+    // the segments that may have rows strictly between the bounds, loaded
+    List<Segment> load(long after, long before) {
+        return load(after, before, segment -> true);
+    }
+
+    // the segments that may have rows strictly between the bounds and whose summaries pass the
+    // filter, loaded
+    List<Segment> load(long after, long before, Predicate<SegmentHandle> filter) {
+        List<Segment> result = new ArrayList<>();
+        for (SegmentHandle segment : segments) {
+            if (segment.overlaps(after, before) && filter.test(segment)) {
+                result.add(segment.segment());
+            }
+        }
+        return result;
+    }
+
+    LogSnapshot append(SegmentHandle segment) {
+        SegmentHandle[] result = Arrays.copyOf(segments, segments.length + 1);
+        result[segments.length] = segment;
+        return new LogSnapshot(result);
+    }
+
+    LogSnapshot replace(SegmentHandle segment, SegmentHandle replacement) {
+        SegmentHandle[] result = segments.clone();
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] == segment) {
+                result[i] = replacement;
+            }
+        }
+        return new LogSnapshot(result);
+    }
+
+    // the segments of the sources renamed to the given files, and without those of the dropped sources
+    LogSnapshot move(Map<Path, Path> renamed, Set<Path> dropped) {
+        List<SegmentHandle> result = new ArrayList<>();
+        for (SegmentHandle segment : segments) {
+            Path target = renamed.get(segment.source);
+            if (target != null) {
+                result.add(segment.movedTo(target));
+            } else if (!dropped.contains(segment.source)) {
+                result.add(segment);
+            }
+        }
+        return new LogSnapshot(result);
+    }
+
+    LogSnapshot remove(SegmentHandle segment) {
+        List<SegmentHandle> result = new ArrayList<>(Arrays.asList(segments));
+        result.remove(segment);
+        return new LogSnapshot(result);
+    }
+
+    SegmentHandle lastSegmentOf(Path source) {
+        for (int i = segments.length - 1; i >= 0; i--) {
+            if (segments[i].source.equals(source)) {
+                return segments[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,176 @@
+package parser;
+
+import java.util.Arrays;
+
+class LogStore {
+    static final Event[] EVENTS = Event.values();
+    static final Status[] STATUSES = Status.values();
+    static final int NO_TASK = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    final IpTable ipTable;
+    final SymbolTable userTable;
+
+    long[] dates = new long[INITIAL_CAPACITY];
+    int[] ips = new int[INITIAL_CAPACITY];
+    int[] users = new int[INITIAL_CAPACITY];
+    byte[] events = new byte[INITIAL_CAPACITY];
+    int[] eventNums = new int[INITIAL_CAPACITY];
+    byte[] statuses = new byte[INITIAL_CAPACITY];
+    int size;
+
+    LogStore() {
+        this(new IpTable(), new SymbolTable());
+    }
+
+    LogStore(IpTable ipTable, SymbolTable userTable) {
+        this.ipTable = ipTable;
+        this.userTable = userTable;
+    }
+
+    void add(int ip, int user, long date, byte event, int eventNum, byte status) {
+        if (size == dates.length) {
+            grow();
+        }
+        dates[size] = date;
+        ips[size] = ip;
+        users[size] = user;
+        events[size] = event;
+        eventNums[size] = eventNum;
+        statuses[size] = status;
+        size++;
+    }
+
+    void addAll(LogStore batch) {
+        int[] ipIds = new int[batch.ipTable.size()];
+        for (int id = 0; id < ipIds.length; id++) {
+            ipIds[id] = ipTable.intern(batch.ipTable, id);
+        }
+        int[] userIds = new int[batch.userTable.size()];
+        for (int id = 0; id < userIds.length; id++) {
+            userIds[id] = userTable.intern(batch.userTable, id);
+        }
+        ensureCapacity(size + batch.size);
+        System.arraycopy(batch.dates, 0, dates, size, batch.size);
+        System.arraycopy(batch.events, 0, events, size, batch.size);
+        System.arraycopy(batch.eventNums, 0, eventNums, size, batch.size);
+        System.arraycopy(batch.statuses, 0, statuses, size, batch.size);
+        for (int i = 0; i < batch.size; i++) {
+            ips[size + i] = ipIds[batch.ips[i]];
+            users[size + i] = userIds[batch.users[i]];
+        }
+        size += batch.size;
+    }
+
+    // rows of a segment built over the same tables, so no id remapping is needed
+    void addAll(Segment segment) {
+        ensureCapacity(size + segment.size);
+        for (int row = 0; row < segment.size; row++) {
+            dates[size + row] = segment.date(row);
+            ips[size + row] = segment.ip(row);
+            users[size + row] = segment.user(row);
+            events[size + row] = (byte) segment.event(row);
+            eventNums[size + row] = segment.task(row);
+            statuses[size + row] = (byte) segment.status(row);
+        }
+        size += segment.size;
+    }
+
+    void trimToSize() {
+        if (size < dates.length) {
+            resize(size);
+        }
+    }
+
+    void sortByDate() {
+        if (isSortedByDate()) {
+            return;
+        }
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, new int[size], 0, size);
+        dates = permute(dates, order);
+        ips = permute(ips, order);
+        users = permute(users, order);
+        events = permute(events, order);
+        eventNums = permute(eventNums, order);
+        statuses = permute(statuses, order);
+    }
+
+    private boolean isSortedByDate() {
+        for (int i = 1; i < size; i++) {
+            if (dates[i - 1] > dates[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // stable, so rows with equal dates keep their load order
+    private void mergeSort(int[] order, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(order, buffer, from, middle);
+        mergeSort(order, buffer, middle, to);
+        if (dates[order[middle - 1]] <= dates[order[middle]]) {
+            return;
+        }
+        System.arraycopy(order, from, buffer, from, to - from);
+        int left = from, right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || left < middle && dates[buffer[left]] <= dates[buffer[right]]) {
+                order[i] = buffer[left++];
+            } else {
+                order[i] = buffer[right++];
+            }
+        }
+    }
+
+    private static long[] permute(long[] column, int[] order) {
+        long[] result = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = column[order[i]];
+        }
+        return result;
+    }
+
+    private static int[] permute(int[] column, int[] order) {
+        int[] result = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = column[order[i]];
+        }
+        return result;
+    }
+
+    private static byte[] permute(byte[] column, int[] order) {
+        byte[] result = new byte[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = column[order[i]];
+        }
+        return result;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > dates.length) {
+            resize(Math.max(capacity, dates.length + (dates.length >> 1)));
+        }
+    }
+
+    private void grow() {
+        resize(Math.max(INITIAL_CAPACITY, dates.length + (dates.length >> 1)));
+    }
+
+    private void resize(int capacity) {
+        dates = Arrays.copyOf(dates, capacity);
+        ips = Arrays.copyOf(ips, capacity);
+        users = Arrays.copyOf(users, capacity);
+        events = Arrays.copyOf(events, capacity);
+        eventNums = Arrays.copyOf(eventNums, capacity);
+        statuses = Arrays.copyOf(statuses, capacity);
+    }
+}
@@ -0,0 +1,288 @@
+package parser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Follows logDir: lines appended to known files and new .log files are parsed from the last
+// read offset and published to the parser as new segments. Only complete lines are consumed.
+// A new .log.gz file is read whole once it inflates without error, which also skips one that
+// is still being written until it is complete. Rotated files are followed by their file keys,
+// see track.
+class LogTailer implements Runnable {
+    private static final long POLL_SECONDS = 1;
+    // appends to a file whose newest segment is smaller than this are merged into that segment
+    private static final int COMPACTION_THRESHOLD = 1 << 16;
+
+    private final LogParser parser;
+    private final Path logDir;
+    private final DateDecoder dateDecoder;
+    private final IpTable ipTable;
+    private final SymbolTable userTable;
+    private final Map<Path, Long> offsets;
+    private final Map<Path, Long> tails;
+    private final Metrics metrics;
+    // file keys (inodes) of the files read, by name; a file whose key turns up under another
+    // name was renamed
+    private final Map<Path, Object> fileKeys = new HashMap<>();
+    private volatile WatchService watchService;
+
+    LogTailer(LogParser parser, Path logDir, DateDecoder dateDecoder, IpTable ipTable, SymbolTable userTable, Map<Path, Long> offsets, Map<Path, Long> tails, Metrics metrics) {
+        this.parser = parser;
+        this.logDir = logDir;
+        this.dateDecoder = dateDecoder;
+        this.ipTable = ipTable;
+        this.userTable = userTable;
+        this.offsets = offsets;
+        this.tails = tails;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void run() {
+        try (WatchService watchService = logDir.getFileSystem().newWatchService()) {
+            this.watchService = watchService;
+            logDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            while (!Thread.currentThread().isInterrupted()) {
+                catchUp();
+                // the timeout also picks up changes the watch service does not report
+                WatchKey key = watchService.poll(POLL_SECONDS, TimeUnit.SECONDS);
+                if (key != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // stopped
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    void stop() throws IOException {
+        WatchService watchService = this.watchService;
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    void catchUp() throws IOException {
+        Map<Path, BasicFileAttributes> files = new LinkedHashMap<>();
+        for (Path file : parser.files()) {
+            try {
+                files.put(file, Files.readAttributes(file, BasicFileAttributes.class));
+            } catch (NoSuchFileException e) {
+                // removed since listed
+            }
+        }
+        track(files);
+        for (Map.Entry<Path, BasicFileAttributes> entry : files.entrySet()) {
+            try {
+                catchUp(entry.getKey(), entry.getValue(), files);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Follows what happened to the files read so far, so that rotating a log does not read its
+    // rows again. A file found under another name by its file key was renamed: its segments and
+    // offset move to the new name. A file gone from its name, or replaced there by another file,
+    // whose <name>.gz exists was compressed: its segments become those of the compressed file.
+    // Otherwise its segments are dropped, as they are when the file was truncated, and a new
+    // file under the name is read from the start.
+    private void track(Map<Path, BasicFileAttributes> files) {
+        Map<Object, Path> byKey = new HashMap<>();
+        for (Map.Entry<Path, BasicFileAttributes> entry : files.entrySet()) {
+            if (entry.getValue().fileKey() != null) {
+                byKey.put(entry.getValue().fileKey(), entry.getKey());
+            }
+        }
+        Map<Path, Path> renamed = new HashMap<>();
+        List<Path> gone = new ArrayList<>();
+        for (Map.Entry<Path, Long> entry : offsets.entrySet()) {
+            Path file = entry.getKey();
+            Object fileKey = fileKeys.get(file);
+            Path current = fileKey == null ? (files.containsKey(file) ? file : null) : byKey.get(fileKey);
+            if (current == null) {
+                gone.add(file);
+            } else if (!current.equals(file)) {
+                renamed.put(file, current);
+            } else if (files.get(file).size() < entry.getValue()) {
+                gone.add(file);
+            }
+        }
+        Set<Path> dropped = new HashSet<>();
+        for (Path file : gone) {
+            Path compressed = file.resolveSibling(file.getFileName() + ".gz");
+            if (CompressedLog.isCompressed(compressed) && files.containsKey(compressed) && !offsets.containsKey(compressed)
+                    && !renamed.containsValue(compressed)) {
+                renamed.put(file, compressed);
+            } else {
+                dropped.add(file);
+            }
+        }
+        if (renamed.isEmpty() && dropped.isEmpty()) {
+            return;
+        }
+        LogSnapshot snapshot = parser.snapshot();
+        long minDate = Long.MAX_VALUE, maxDate = Long.MIN_VALUE;
+        for (SegmentHandle segment : snapshot.segments) {
+            if (dropped.contains(segment.source) && segment.size > 0) {
+                minDate = Math.min(minDate, segment.minDate);
+                maxDate = Math.max(maxDate, segment.maxDate);
+            }
+        }
+        Map<Path, Long> movedOffsets = new HashMap<>();
+        Map<Path, Long> movedTails = new HashMap<>();
+        for (Map.Entry<Path, Path> entry : renamed.entrySet()) {
+            Path file = entry.getKey(), target = entry.getValue();
+            // a compressed file is read whole, so its offset is its size
+            movedOffsets.put(target, CompressedLog.isCompressed(target) && !CompressedLog.isCompressed(file)
+                    ? files.get(target).size() : offsets.get(file));
+            Long tail = tails.remove(file);
+            if (tail != null && !CompressedLog.isCompressed(target)) {
+                movedTails.put(target, tail);
+            }
+            fileKeys.remove(file);
+        }
+        for (Path file : dropped) {
+            offsets.remove(file);
+            tails.remove(file);
+            fileKeys.remove(file);
+        }
+        offsets.keySet().removeAll(renamed.keySet());
+        offsets.putAll(movedOffsets);
+        tails.putAll(movedTails);
+        parser.publish(snapshot.move(renamed, dropped), minDate, maxDate);
+    }
+
+    private void catchUp(Path file, BasicFileAttributes attributes, Map<Path, BasicFileAttributes> files) throws IOException {
+        if (attributes.fileKey() != null) {
+            fileKeys.put(file, attributes.fileKey());
+        }
+        if (CompressedLog.isCompressed(file)) {
+            Path uncompressed = file.resolveSibling(file.getFileName().toString().substring(0, file.getFileName().toString().length() - 3));
+            if (offsets.containsKey(file) || offsets.containsKey(uncompressed) && files.containsKey(uncompressed)) {
+                // read already, or the compressed copy of a file read that gzip has not removed yet
+                return;
+            }
+            try {
+                appendCompressed(file);
+            } catch (EOFException e) {
+                // still being written, read again on the next poll
+                return;
+            }
+            offsets.put(file, attributes.size());
+            return;
+        }
+        long offset = offsets.getOrDefault(file, 0L);
+        if (attributes.size() > offset) {
+            offset += append(file, offset, attributes.size());
+        }
+        offsets.put(file, offset);
+    }
+
+    // returns the number of bytes consumed, which ends at the last complete line
+    private long append(Path file, long offset, long size) throws IOException {
+        long start = metrics.enabled ? System.nanoTime() : 0;
+        LogStore batch = new LogStore();
+        LogLineParser lineParser = new LogLineParser(batch, dateDecoder);
+        int length;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(size - offset, Integer.MAX_VALUE));
+            length = buffer.limit();
+            while (length > 0 && buffer.get(length - 1) != '\n') {
+                length--;
+            }
+            if (length == 0) {
+                return 0;
+            }
+            buffer.limit(length);
+            lineParser.parse(buffer);
+        }
+        if (metrics.enabled) {
+            metrics.ingested(file, length, lineParser, start);
+        }
+        LogSnapshot snapshot = parser.snapshot();
+        long minDate = minDate(batch), maxDate = maxDate(batch);
+        boolean changed = false;
+        if (tails.remove(file) != null) {
+            // the first line read is the last line the loader read before it was complete
+            SegmentHandle tail = snapshot.lastSegmentOf(file);
+            snapshot = snapshot.remove(tail);
+            minDate = Math.min(minDate, tail.minDate);
+            maxDate = Math.max(maxDate, tail.maxDate);
+            changed = true;
+        }
+        if (batch.size > 0) {
+            SegmentHandle last = snapshot.lastSegmentOf(file);
+            LogStore rows = new LogStore(ipTable, userTable);
+            boolean compact = last != null && last.size < COMPACTION_THRESHOLD;
+            if (compact) {
+                rows.addAll(last.segment());
+            }
+            rows.addAll(batch);
+            SegmentHandle segment = new SegmentHandle(new Segment(file, rows));
+            snapshot = compact ? snapshot.replace(last, segment) : snapshot.append(segment);
+            changed = true;
+        }
+        if (changed) {
+            parser.publish(snapshot, minDate, maxDate);
+        }
+        return length;
+    }
+
+    private void appendCompressed(Path file) throws IOException {
+        long start = metrics.enabled ? System.nanoTime() : 0;
+        LogStore batch = new LogStore();
+        LogLineParser lineParser = new LogLineParser(batch, dateDecoder);
+        CompressedLog.parse(file, lineParser);
+        if (metrics.enabled) {
+            metrics.ingested(file, Files.size(file), lineParser, start);
+        }
+        if (batch.size > 0) {
+            LogStore rows = new LogStore(ipTable, userTable);
+            rows.addAll(batch);
+            LogSnapshot snapshot = parser.snapshot();
+            for (Segment segment : Segment.partition(file, rows)) {
+                snapshot = snapshot.append(new SegmentHandle(segment));
+            }
+            parser.publish(snapshot, minDate(batch), maxDate(batch));
+        }
+    }
+
+    private static long minDate(LogStore batch) {
+        long minDate = Long.MAX_VALUE;
+        for (int i = 0; i < batch.size; i++) {
+            minDate = Math.min(minDate, batch.dates[i]);
+        }
+        return minDate;
+    }
+
+    private static long maxDate(LogStore batch) {
+        long maxDate = Long.MIN_VALUE;
+        for (int i = 0; i < batch.size; i++) {
+            maxDate = Math.max(maxDate, batch.dates[i]);
+        }
+        return maxDate;
+    }
+}
@@ -0,0 +1,92 @@
+package parser;
+
+// Counts per long key in open addressing arrays, for aggregating column values (ids, codes,
+// tasks or dates) without boxing them. Counts are positive, a zero count marks a free slot;
+// slots are iterated from 0 until capacity().
+class LongCounts {
+    private long[] keys = new long[16];
+    private int[] counts = new int[16];
+    private int size;
+
+    void add(long key, int count) {
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (counts[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (counts[slot] != 0) {
+            counts[slot] += count;
+            return;
+        }
+        keys[slot] = key;
+        counts[slot] = count;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    // the count of the key, 0 when absent
+    int get(long key) {
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); counts[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return counts[slot];
+            }
+        }
+        return 0;
+    }
+
+    // the keys, in slot order
+    long[] keys() {
+        long[] result = new long[size];
+        for (int slot = 0, i = 0; slot < keys.length; slot++) {
+            if (counts[slot] != 0) {
+                result[i++] = keys[slot];
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    boolean used(int slot) {
+        return counts[slot] != 0;
+    }
+
+    long key(int slot) {
+        return keys[slot];
+    }
+
+    int count(int slot) {
+        return counts[slot];
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCounts[i] != 0) {
+                int slot = slot(oldKeys[i], mask);
+                while (counts[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,119 @@
+package parser;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Instrumentation of a parser: ingest counters per file, latency histograms per query method and
+// QL query shape, and the rows queries scanned and matched. Everything is recorded only when
+// enabled, which also emits the JFR events; callers check enabled before taking any time, so a
+// disabled instance costs a field read.
+class Metrics {
+    final boolean enabled;
+    private final Map<Path, Ingest> ingest = new ConcurrentHashMap<>();
+    private final LongAdder parseErrors = new LongAdder();
+    private final LongAdder rowsScanned = new LongAdder();
+    private final LongAdder rowsMatched = new LongAdder();
+    private final Map<String, LatencyHistogram> methods = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> queries = new ConcurrentHashMap<>();
+
+    Metrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // records the parsing of a chunk of the file that started at the given nanoTime
+    void ingested(Path file, long bytes, LogLineParser parser, long start) {
+        long nanos = System.nanoTime() - start;
+        ingest.computeIfAbsent(file, key -> new Ingest()).add(bytes, parser.lines(), parser.errors(), nanos);
+        parseErrors.add(parser.errors());
+        IngestEvent event = new IngestEvent();
+        if (event.shouldCommit()) {
+            event.file = file.toString();
+            event.bytes = bytes;
+            event.lines = parser.lines();
+            event.parseErrors = parser.errors();
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    void rows(long scanned, long matched) {
+        rowsScanned.add(scanned);
+        rowsMatched.add(matched);
+    }
+
+    void method(String name, long start, int results) {
+        record(methods, name, start, results);
+    }
+
+    void query(String shape, long start, int results) {
+        record(queries, shape, start, results);
+    }
+
+    private static void record(Map<String, LatencyHistogram> histograms, String name, long start, int results) {
+        long nanos = System.nanoTime() - start;
+        histograms.computeIfAbsent(name, key -> new LatencyHistogram()).record(nanos);
+        QueryEvent event = new QueryEvent();
+        if (event.shouldCommit()) {
+            event.query = name;
+            event.results = results;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    ParserMetrics snapshot() {
+        Map<String, IngestStats> files = new TreeMap<>();
+        ingest.forEach((file, counters) -> files.put(file.toString(), counters.stats()));
+        return new ParserMetrics(files, parseErrors.sum(), rowsScanned.sum(), rowsMatched.sum(), stats(methods), stats(queries));
+    }
+
+    private static Map<String, LatencyStats> stats(Map<String, LatencyHistogram> histograms) {
+        Map<String, LatencyStats> result = new TreeMap<>();
+        histograms.forEach((name, histogram) -> result.put(name, histogram.stats()));
+        return result;
+    }
+
+    // "get ip for user date between", the query without its values
+    static String shape(QueryPlan plan) {
+        StringBuilder shape = new StringBuilder("get ");
+        if (plan.aggregate == QueryPlan.Aggregate.APPROX_COUNT) {
+            shape.append("approx count ");
+        } else if (plan.aggregate == QueryPlan.Aggregate.COUNT) {
+            shape.append("count ");
+        } else if (plan.aggregate == QueryPlan.Aggregate.TOP) {
+            shape.append("top ");
+        }
+        shape.append(plan.select.keyword);
+        if (plan.group != null) {
+            shape.append(" group by ").append(plan.group.keyword);
+        }
+        if (plan.filter != null) {
+            shape.append(" for ").append(plan.filter.keyword);
+        }
+        if (plan.after != null || plan.before != null) {
+            shape.append(" date between");
+        }
+        return shape.toString();
+    }
+
+    private static class Ingest {
+        private long bytes;
+        private long lines;
+        private long errors;
+        private long nanos;
+
+        synchronized void add(long bytes, long lines, long errors, long nanos) {
+            this.bytes += bytes;
+            this.lines += lines;
+            this.errors += errors;
+            this.nanos += nanos;
+        }
+
+        synchronized IngestStats stats() {
+            return new IngestStats(bytes, lines, errors, nanos);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package parser;
+
+import java.util.Map;
+
+// Point in time view of the instrumentation of a parser, see Metrics. Empty unless the parser
+// runs with -Dparser.metrics=true.
+public class ParserMetrics {
+    private final Map<String, IngestStats> ingest;
+    private final long parseErrors;
+    private final long rowsScanned;
+    private final long rowsMatched;
+    private final Map<String, LatencyStats> methodLatencies;
+    private final Map<String, LatencyStats> queryLatencies;
+
+    ParserMetrics(Map<String, IngestStats> ingest, long parseErrors, long rowsScanned, long rowsMatched,
+                  Map<String, LatencyStats> methodLatencies, Map<String, LatencyStats> queryLatencies) {
+        this.ingest = ingest;
+        this.parseErrors = parseErrors;
+        this.rowsScanned = rowsScanned;
+        this.rowsMatched = rowsMatched;
+        this.methodLatencies = methodLatencies;
+        this.queryLatencies = queryLatencies;
+    }
+
+    // by log file
+    public Map<String, IngestStats> getIngest() {
+        return ingest;
+    }
+
+    public long getParseErrors() {
+        return parseErrors;
+    }
+
+    // rows within the date range of the segments that queries read
+    public long getRowsScanned() {
+        return rowsScanned;
+    }
+
+    // rows of those that also passed the filter of the query
+    public long getRowsMatched() {
+        return rowsMatched;
+    }
+
+    // by query method, cache hits included
+    public Map<String, LatencyStats> getMethodLatencies() {
+        return methodLatencies;
+    }
+
+    // by shape of the QL query, such as "get ip for user date between"
+    public Map<String, LatencyStats> getQueryLatencies() {
+        return queryLatencies;
+    }
+
+    @Override
+    public String toString() {
+        return "ParserMetrics{ingest=" + ingest + ", parseErrors=" + parseErrors + ", rowsScanned=" + rowsScanned
+                + ", rowsMatched=" + rowsMatched + ", methodLatencies=" + methodLatencies + ", queryLatencies=" + queryLatencies + "}";
+    }
+}
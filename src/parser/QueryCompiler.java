@@ -0,0 +1,293 @@
+package parser;
+
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Tokenizes and parses QL queries into plans. Compiled plans are kept in a bounded cache keyed by
+// the query text, so a repeated query is not parsed again. As in ResultCache, hits take no lock and
+// only mark the plan as referenced; inserts are serialized and evict by a CLOCK sweep over the
+// insertion order, so the plans of frequent queries stay when many one-off queries come by.
+class QueryCompiler {
+    private static final int CACHE_SIZE = 1024;
+
+    private final DateDecoder dateDecoder;
+    private final Map<String, Entry> plans = new ConcurrentHashMap<>();
+    // cached queries in insertion order
+    private final ArrayDeque<Entry> clock = new ArrayDeque<>();
+
+    QueryCompiler(DateDecoder dateDecoder) {
+        this.dateDecoder = dateDecoder;
+    }
+
+    QueryPlan compile(String query) throws ParseException {
+        Entry entry = plans.get(query);
+        if (entry != null) {
+            // skip the write when set, so hot entries do not bounce between cores
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            return entry.plan;
+        }
+        QueryPlan plan = parse(new Tokenizer(query));
+        synchronized (this) {
+            if (!plans.containsKey(query)) {
+                entry = new Entry(query, plan);
+                plans.put(query, entry);
+                clock.addLast(entry);
+                evict();
+            }
+        }
+        return plan;
+    }
+
+    // number of cached plans
+    int size() {
+        return plans.size();
+    }
+
+    private void evict() {
+        while (plans.size() > CACHE_SIZE) {
+            Entry entry = clock.pollFirst();
+            if (entry.referenced) {
+                entry.referenced = false;
+                clock.addLast(entry);
+            } else {
+                plans.remove(entry.query);
+            }
+        }
+    }
+
+    private QueryPlan parse(Tokenizer tokens) throws ParseException {
+        tokens.expect("get");
+        QueryPlan.Aggregate aggregate = null;
+        int limit = 0;
+        if (tokens.accept("approx")) {
+            tokens.expect("count");
+            aggregate = QueryPlan.Aggregate.APPROX_COUNT;
+        } else if (tokens.accept("count")) {
+            aggregate = QueryPlan.Aggregate.COUNT;
+        } else if (tokens.accept("top")) {
+            aggregate = QueryPlan.Aggregate.TOP;
+            limit = limit(tokens);
+        }
+        int selectPosition = tokens.position();
+        QueryPlan.Field select = field(tokens);
+        if (aggregate == QueryPlan.Aggregate.APPROX_COUNT && select != QueryPlan.Field.IP && select != QueryPlan.Field.USER) {
+            throw new ParseException("Approximate count supports only ip and user", selectPosition);
+        }
+        QueryPlan.Field group = null;
+        if (aggregate == null && tokens.accept("group")) {
+            tokens.expect("by");
+            int position = tokens.position();
+            group = field(tokens);
+            if (group == select) {
+                throw new ParseException("Cannot group " + select.keyword + " by " + group.keyword, position);
+            }
+            aggregate = QueryPlan.Aggregate.GROUP_BY;
+        }
+        if (aggregate == null && select == QueryPlan.Field.TASK) {
+            throw new ParseException("The task field is supported only by count, group by and top", selectPosition);
+        }
+        QueryPlan.Field filter = null;
+        Object value = null;
+        Date after = null;
+        Date before = null;
+        int forPosition = tokens.position();
+        if (tokens.accept("for") || aggregate == QueryPlan.Aggregate.TOP && tokens.accept("by")) {
+            if (aggregate == QueryPlan.Aggregate.APPROX_COUNT) {
+                throw new ParseException("Approximate count does not support 'for'", forPosition);
+            }
+            int position = tokens.position();
+            filter = field(tokens);
+            if (filter == select) {
+                throw new ParseException("Cannot get " + select.keyword + " for " + filter.keyword, position);
+            }
+            if (aggregate == null && filter == QueryPlan.Field.TASK) {
+                throw new ParseException("The task field is supported only by count, group by and top", position);
+            }
+            tokens.expect("=");
+            value = value(filter, tokens);
+        }
+        boolean range = tokens.accept("and");
+        if (range) {
+            tokens.expect("date");
+        } else {
+            range = tokens.accept("date");
+        }
+        if (range) {
+            tokens.expect("between");
+            after = new Date(date(tokens));
+            tokens.expect("and");
+            before = new Date(date(tokens));
+        }
+        // queries may be written as a sentence
+        tokens.accept(".");
+        tokens.expectEnd();
+        return new QueryPlan(aggregate, select, filter, value, after, before, group, limit);
+    }
+
+    private static int limit(Tokenizer tokens) throws ParseException {
+        int position = tokens.position();
+        String word = tokens.word();
+        try {
+            int limit = Integer.parseInt(word);
+            if (limit > 0) {
+                return limit;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new ParseException("Expected a positive number of values at '" + word + "'", position);
+    }
+
+    private static QueryPlan.Field field(Tokenizer tokens) throws ParseException {
+        int position = tokens.position();
+        String word = tokens.word();
+        for (QueryPlan.Field field : QueryPlan.Field.values()) {
+            if (field.keyword.equals(word)) {
+                return field;
+            }
+        }
+        throw new ParseException("Unknown field: " + word, position);
+    }
+
+    private Object value(QueryPlan.Field field, Tokenizer tokens) throws ParseException {
+        int position = tokens.position();
+        switch (field) {
+            case DATE:
+                return new Date(date(tokens));
+            case EVENT:
+                String event = tokens.quoted();
+                try {
+                    return Event.valueOf(event);
+                } catch (IllegalArgumentException e) {
+                    throw new ParseException("Unknown event: " + event, position);
+                }
+            case STATUS:
+                String status = tokens.quoted();
+                try {
+                    return Status.valueOf(status);
+                } catch (IllegalArgumentException e) {
+                    throw new ParseException("Unknown status: " + status, position);
+                }
+            case TASK:
+                String task = tokens.quoted();
+                try {
+                    // a negative task would match the rows without one
+                    if (Integer.parseInt(task) >= 0) {
+                        return Integer.valueOf(task);
+                    }
+                } catch (NumberFormatException e) {
+                    // reported below
+                }
+                throw new ParseException("Invalid task: " + task, position);
+            default:
+                return tokens.quoted();
+        }
+    }
+
+    private long date(Tokenizer tokens) throws ParseException {
+        int position = tokens.position();
+        String text = tokens.quoted();
+        try {
+            return dateDecoder.decode(text);
+        } catch (ParseException e) {
+            throw new ParseException(e.getMessage(), position + 1 + e.getErrorOffset());
+        }
+    }
+
+    // Words, '=' and double quoted strings, separated by whitespace.
+    private static class Tokenizer {
+        private final String text;
+        private int position;
+
+        private Tokenizer(String text) {
+            this.text = text;
+            skipWhitespace();
+        }
+
+        private int position() {
+            return position;
+        }
+
+        private boolean accept(String token) {
+            if (!text.startsWith(token, position)) {
+                return false;
+            }
+            int end = position + token.length();
+            if (isWordChar(token.charAt(0)) && end < text.length() && isWordChar(text.charAt(end))) {
+                return false;
+            }
+            position = end;
+            skipWhitespace();
+            return true;
+        }
+
+        private void expect(String token) throws ParseException {
+            if (!accept(token)) {
+                throw new ParseException("Expected '" + token + "' at " + found(), position);
+            }
+        }
+
+        private void expectEnd() throws ParseException {
+            if (position < text.length()) {
+                throw new ParseException("Unexpected " + found(), position);
+            }
+        }
+
+        private String word() throws ParseException {
+            int start = position;
+            while (position < text.length() && isWordChar(text.charAt(position))) {
+                position++;
+            }
+            if (start == position) {
+                throw new ParseException("Expected a field name at " + found(), position);
+            }
+            String word = text.substring(start, position);
+            skipWhitespace();
+            return word;
+        }
+
+        private String quoted() throws ParseException {
+            if (position == text.length() || text.charAt(position) != '"') {
+                throw new ParseException("Expected a quoted value at " + found(), position);
+            }
+            int end = text.indexOf('"', position + 1);
+            if (end < 0) {
+                throw new ParseException("Unterminated quoted value", position);
+            }
+            String value = text.substring(position + 1, end);
+            position = end + 1;
+            skipWhitespace();
+            return value;
+        }
+
+        private String found() {
+            return position < text.length() ? "'" + text.substring(position) + "'" : "end of query";
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        private static boolean isWordChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_';
+        }
+    }
+
+    private static class Entry {
+        private final String query;
+        private final QueryPlan plan;
+        private volatile boolean referenced;
+
+        private Entry(String query, QueryPlan plan) {
+            this.query = query;
+            this.plan = plan;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package parser;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// One call of a query method or one QL query.
+@Name("parser.Query")
+@Label("Log Query")
+@Category("Log Parser")
+class QueryEvent extends Event {
+    @Label("Query")
+    String query;
+
+    @Label("Results")
+    int results;
+
+    // the time measured for the histograms; the event itself is committed at the end
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long nanos;
+}
@@ -0,0 +1,55 @@
+package parser;
+
+import java.util.Date;
+
+// Compiled form of a QL query:
+//   get [approx count | count | top <limit>] <select> [group by <group>] [for|by <filter> = "<value>"]
+//       [[and] date between "<after>" and "<before>"]
+// The value is typed by the filter field: a String for ip and user, a Date, an Event, a Status or
+// an Integer task. Without an aggregate the query returns the distinct values of the selected
+// field; count returns their number, group by the number of them per value of the group field,
+// and top the limit values with the most matching rows, with their row counts. The task field is
+// only supported by aggregates, see Aggregation.
+class QueryPlan {
+    enum Aggregate {
+        APPROX_COUNT,
+        COUNT,
+        GROUP_BY,
+        TOP
+    }
+
+    enum Field {
+        IP("ip"),
+        USER("user"),
+        DATE("date"),
+        EVENT("event"),
+        STATUS("status"),
+        TASK("task");
+
+        final String keyword;
+
+        Field(String keyword) {
+            this.keyword = keyword;
+        }
+    }
+
+    final Aggregate aggregate;
+    final Field select;
+    final Field filter;
+    final Object value;
+    final Date after;
+    final Date before;
+    final Field group;
+    final int limit;
+
+    QueryPlan(Aggregate aggregate, Field select, Field filter, Object value, Date after, Date before, Field group, int limit) {
+        this.aggregate = aggregate;
+        this.select = select;
+        this.filter = filter;
+        this.value = value;
+        this.after = after;
+        this.before = before;
+        this.group = group;
+        this.limit = limit;
+    }
+}
@@ -0,0 +1,137 @@
+package parser;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Cache of query results, bounded by the total number of elements of the cached results.
+// Each entry remembers the (exclusive) date range its query covered, so new rows only evict
+// the entries whose range they fall into. Results are cached and handed out as unmodifiable views.
+// Hits take no lock: they only mark the entry as referenced, and eviction is a CLOCK sweep
+// (second chance) over the insertion order, an approximation of LRU. Inserts, evictions and
+// invalidations are serialized on the cache.
+class ResultCache {
+    private final long capacity;
+    private final Map<List<Object>, Entry> entries = new ConcurrentHashMap<>();
+    // entries in insertion order; holds entries already invalidated until the sweep reaches them
+    private final ArrayDeque<Entry> clock = new ArrayDeque<>();
+    private long weight;
+    // bumped by every invalidation; a result computed across one is not cached
+    private volatile long version;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long evictions;
+    private long invalidations;
+
+    ResultCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T get(List<Object> key, long after, long before, Supplier<T> query) {
+        if (capacity == 0) {
+            return (T) unmodifiable(query.get());
+        }
+        long version = this.version;
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            // skip the write when set, so hot entries do not bounce between cores
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            hits.increment();
+            return (T) entry.value;
+        }
+        misses.increment();
+        T value = (T) unmodifiable(query.get());
+        synchronized (this) {
+            if (version == this.version && !entries.containsKey(key)) {
+                entry = new Entry(key, value, after, before);
+                entries.put(key, entry);
+                clock.addLast(entry);
+                weight += entry.weight;
+                evict();
+            }
+        }
+        return value;
+    }
+
+    // drops the entries whose range contains a date in [minDate, maxDate]
+    synchronized void invalidate(long minDate, long maxDate) {
+        version++;
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+            Entry entry = iterator.next();
+            if (maxDate > entry.after && minDate < entry.before) {
+                iterator.remove();
+                weight -= entry.weight;
+                invalidations++;
+            }
+        }
+        if (clock.size() > 2 * entries.size() + 16) {
+            clock.removeIf(entry -> entries.get(entry.key) != entry);
+        }
+    }
+
+    synchronized CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions, invalidations, entries.size(), weight);
+    }
+
+    private void evict() {
+        while (weight > capacity) {
+            Entry entry = clock.pollFirst();
+            if (entries.get(entry.key) != entry) {
+                continue;
+            }
+            if (entry.referenced) {
+                entry.referenced = false;
+                clock.addLast(entry);
+                continue;
+            }
+            entries.remove(entry.key, entry);
+            weight -= entry.weight;
+            evictions++;
+        }
+    }
+
+    private static Object unmodifiable(Object value) {
+        if (value instanceof Set) {
+            return Collections.unmodifiableSet((Set<?>) value);
+        }
+        if (value instanceof Map) {
+            return Collections.unmodifiableMap((Map<?, ?>) value);
+        }
+        return value;
+    }
+
+    private static class Entry {
+        private final List<Object> key;
+        private final Object value;
+        private final long after;
+        private final long before;
+        private final long weight;
+        private volatile boolean referenced;
+
+        private Entry(List<Object> key, Object value, long after, long before) {
+            this.key = key;
+            this.value = value;
+            this.after = after;
+            this.before = before;
+            if (value instanceof Collection) {
+                weight = ((Collection<?>) value).size() + 1;
+            } else if (value instanceof Map) {
+                weight = ((Map<?, ?>) value).size() + 1;
+            } else if (value instanceof long[]) {
+                weight = ((long[]) value).length + 1;
+            } else {
+                weight = 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package parser;
+
+import parser.index.Bitmap;
+
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+// Distinct values of a query plan, produced while scanning the matching rows segment by segment.
+// Only the values handed out so far are remembered, so a short-circuited stream stops scanning
+// and holds memory proportional to what it consumed.
+class ResultSpliterator implements Spliterator<Object> {
+    private final SegmentHandle[] segments;
+    private final QueryPlan plan;
+    private final IpTable ipTable;
+    private final SymbolTable userTable;
+    private final long after;
+    private final long before;
+    private final int filterId;
+    private final BitSet seenIds = new BitSet();
+    private final Set<Long> seenDates = new HashSet<>();
+    private int segmentIndex;
+    private Segment segment;
+    // matching rows of the current segment, from the cursor or else the range [row, end)
+    private Bitmap.Cursor cursor;
+    private int row;
+    private int end;
+
+    ResultSpliterator(LogSnapshot snapshot, QueryPlan plan, IpTable ipTable, SymbolTable userTable, long after, long before) {
+        this.segments = snapshot.segments;
+        this.plan = plan;
+        this.ipTable = ipTable;
+        this.userTable = userTable;
+        this.after = after;
+        this.before = before;
+        this.filterId = filterId(plan, ipTable, userTable);
+    }
+
+    // the id or ordinal of the filter value or the task, -1 for an unknown ip or user or no such filter
+    static int filterId(QueryPlan plan, IpTable ipTable, SymbolTable userTable) {
+        if (plan.filter == QueryPlan.Field.IP) {
+            return ipTable.idOf((String) plan.value);
+        } else if (plan.filter == QueryPlan.Field.USER) {
+            return userTable.idOf((String) plan.value);
+        } else if (plan.filter == QueryPlan.Field.EVENT) {
+            return ((Event) plan.value).ordinal();
+        } else if (plan.filter == QueryPlan.Field.STATUS) {
+            return ((Status) plan.value).ordinal();
+        } else if (plan.filter == QueryPlan.Field.TASK) {
+            return (Integer) plan.value;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Object> action) {
+        while (true) {
+            int next = nextRow();
+            if (next < 0) {
+                if (segmentIndex == segments.length) {
+                    return false;
+                }
+                SegmentHandle handle = segments[segmentIndex++];
+                if (mayMatch(plan, filterId, after, before, handle)) {
+                    open(handle.segment());
+                }
+                continue;
+            }
+            Object value = distinctValue(next);
+            if (value != null) {
+                action.accept(value);
+                return true;
+            }
+        }
+    }
+
+    private int nextRow() {
+        if (cursor != null) {
+            return cursor.next();
+        }
+        return row < end ? row++ : -1;
+    }
+
+    // false when the date range or the summaries of the segment rule out any matching row,
+    // so that it is not loaded
+    static boolean mayMatch(QueryPlan plan, int filterId, long after, long before, SegmentHandle segment) {
+        if (plan.filter == QueryPlan.Field.DATE) {
+            long date = ((Date) plan.value).getTime();
+            return segment.overlaps(date - 1, date + 1);
+        }
+        if (!segment.overlaps(after, before)) {
+            return false;
+        }
+        if (plan.filter == null) {
+            return true;
+        }
+        switch (plan.filter) {
+            case IP:
+                return segment.hasIp(filterId);
+            case USER:
+                return segment.hasUser(filterId);
+            case EVENT:
+                return segment.hasEvent(filterId);
+            case TASK:
+                // no summary of the tasks
+                return true;
+            default:
+                return segment.hasStatus(filterId);
+        }
+    }
+
+    private void open(Segment segment) {
+        this.segment = segment;
+        cursor = null;
+        if (plan.filter == null) {
+            row = segment.firstAfter(after);
+            end = segment.firstNotBefore(before);
+        } else if (plan.filter == QueryPlan.Field.DATE) {
+            long date = ((Date) plan.value).getTime();
+            row = segment.firstNotBefore(date);
+            end = date > after && date < before ? segment.firstAfter(date) : row;
+        } else {
+            cursor = bitmap(plan, filterId, segment).cursor(segment.firstAfter(after), segment.firstNotBefore(before));
+        }
+    }
+
+    // rows of the segment that pass the ip, user, event, status or task filter
+    static Bitmap bitmap(QueryPlan plan, int filterId, Segment segment) {
+        switch (plan.filter) {
+            case IP:
+                return segment.index.ip(filterId);
+            case USER:
+                return segment.index.user(filterId);
+            case EVENT:
+                return segment.index.event(filterId);
+            case TASK:
+                return segment.index.task(filterId);
+            default:
+                return segment.index.status(filterId);
+        }
+    }
+
+    // the selected value of the row, or null when it was already produced
+    private Object distinctValue(int row) {
+        switch (plan.select) {
+            case IP:
+                int ip = segment.ip(row);
+                return seen(ip) ? null : ipTable.valueOf(ip);
+            case USER:
+                int user = segment.user(row);
+                return seen(user) ? null : userTable.valueOf(user);
+            case DATE:
+                long date = segment.date(row);
+                return seenDates.add(date) ? new Date(date) : null;
+            case EVENT:
+                int event = segment.event(row);
+                return seen(event) ? null : LogStore.EVENTS[event];
+            default:
+                int status = segment.status(row);
+                return seen(status) ? null : LogStore.STATUSES[status];
+        }
+    }
+
+    private boolean seen(int id) {
+        if (seenIds.get(id)) {
+            return true;
+        }
+        seenIds.set(id);
+        return false;
+    }
+
+    @Override
+    public Spliterator<Object> trySplit() {
+        // distinctness is tracked over the whole scan
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return DISTINCT | NONNULL;
+    }
+}
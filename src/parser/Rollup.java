@@ -0,0 +1,139 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Hourly row counts of a segment per (event, status, task) key. Since the rows are sorted by date,
+// every hour bucket is a row range. For each key only the buckets it occurs in are kept, with the
+// running count up to and including that bucket, so the rows of a key in any run of whole buckets
+// take two binary searches. Days and longer windows are just longer runs of hours.
+class Rollup {
+    private static final long BUCKET_MILLIS = 60 * 60 * 1000;
+
+    private final Segment segment;
+    private final Buckets buckets;
+    private final Map<Long, Integer> keyIds = new HashMap<>();
+    private final byte[] keyEvents;
+    private final byte[] keyStatuses;
+    private final int[] keyTasks;
+    private final int[][] keyBuckets;
+    private final int[][] keyCounts;
+
+    Rollup(Segment segment) {
+        this.segment = segment;
+        this.buckets = new Buckets(segment, BUCKET_MILLIS);
+        int[] rowKeys = new int[segment.size];
+        for (int row = 0; row < segment.size; row++) {
+            rowKeys[row] = keyIds.computeIfAbsent(key(segment.event(row), segment.status(row), segment.task(row)), key -> keyIds.size());
+        }
+        int keyCount = keyIds.size();
+        keyEvents = new byte[keyCount];
+        keyStatuses = new byte[keyCount];
+        keyTasks = new int[keyCount];
+        // first pass: the number of buckets of each key
+        int[] lastBuckets = new int[keyCount];
+        int[] sizes = new int[keyCount];
+        Arrays.fill(lastBuckets, -1);
+        int bucket = 0;
+        for (int row = 0; row < segment.size; row++) {
+            while (buckets.start(bucket + 1) <= row) {
+                bucket++;
+            }
+            int key = rowKeys[row];
+            if (lastBuckets[key] != bucket) {
+                lastBuckets[key] = bucket;
+                sizes[key]++;
+                keyEvents[key] = (byte) segment.event(row);
+                keyStatuses[key] = (byte) segment.status(row);
+                keyTasks[key] = segment.task(row);
+            }
+        }
+        keyBuckets = new int[keyCount][];
+        keyCounts = new int[keyCount][];
+        for (int key = 0; key < keyCount; key++) {
+            keyBuckets[key] = new int[sizes[key]];
+            keyCounts[key] = new int[sizes[key]];
+        }
+        // second pass: running counts
+        Arrays.fill(sizes, 0);
+        Arrays.fill(lastBuckets, -1);
+        bucket = 0;
+        for (int row = 0; row < segment.size; row++) {
+            while (buckets.start(bucket + 1) <= row) {
+                bucket++;
+            }
+            int key = rowKeys[row];
+            int entry = sizes[key];
+            if (lastBuckets[key] != bucket) {
+                lastBuckets[key] = bucket;
+                keyBuckets[key][entry] = bucket;
+                keyCounts[key][entry] = entry == 0 ? 0 : keyCounts[key][entry - 1];
+                sizes[key] = ++entry;
+            }
+            keyCounts[key][entry - 1]++;
+        }
+    }
+
+    int keyCount() {
+        return keyEvents.length;
+    }
+
+    int event(int key) {
+        return keyEvents[key];
+    }
+
+    int status(int key) {
+        return keyStatuses[key];
+    }
+
+    int task(int key) {
+        return keyTasks[key];
+    }
+
+    // Number of rows of every key within rows [fromRow, toRow). Whole buckets come from the
+    // running counts, only the rows of the partial buckets at both edges are scanned.
+    int[] countKeys(int fromRow, int toRow) {
+        int[] counts = new int[keyCount()];
+        if (fromRow >= toRow) {
+            return counts;
+        }
+        int firstBucket = buckets.firstFrom(fromRow);
+        int endBucket = buckets.lastFrom(toRow);
+        if (firstBucket >= endBucket) {
+            scan(fromRow, toRow, counts);
+            return counts;
+        }
+        scan(fromRow, buckets.start(firstBucket), counts);
+        for (int key = 0; key < counts.length; key++) {
+            counts[key] += countBefore(key, endBucket) - countBefore(key, firstBucket);
+        }
+        scan(buckets.start(endBucket), toRow, counts);
+        return counts;
+    }
+
+    private void scan(int fromRow, int toRow, int[] counts) {
+        for (int row = fromRow; row < toRow; row++) {
+            counts[keyIds.get(key(segment.event(row), segment.status(row), segment.task(row)))]++;
+        }
+    }
+
+    // rows of the key in the buckets before the given one
+    private int countBefore(int key, int bucket) {
+        int[] occurrences = keyBuckets[key];
+        int low = 0, high = occurrences.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (occurrences[mid] < bucket) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low == 0 ? 0 : keyCounts[key][low - 1];
+    }
+
+    private static long key(int event, int status, int task) {
+        return (long) event << 40 | (long) status << 32 | task & 0xFFFFFFFFL;
+    }
+}
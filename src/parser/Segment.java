@@ -0,0 +1,132 @@
+package parser;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Immutable, date sorted rows of one source file (or of the lines appended to it since the
+// previous segment), together with their indexes. Ids refer to the parser wide tables.
+class Segment {
+    // rows of a parsed file are cut into segments of at most this many rows
+    static final int PARTITION_ROWS = 1 << 20;
+
+    final Path source;
+    final int size;
+    final LogIndex index;
+    final Rollup rollup;
+    final Timelines timelines;
+    final DaySketches sketches;
+    private final Columns columns;
+
+    Segment(Path source, LogStore rows) {
+        this(source, trimmed(rows), rows.size);
+    }
+
+    // columns that are already sorted by date
+    Segment(Path source, long[] dates, int[] ips, int[] users, byte[] events, int[] eventNums, byte[] statuses) {
+        this(source, new Columns.Heap(dates, ips, users, events, eventNums, statuses), dates.length);
+    }
+
+    Segment(Path source, Columns columns, int size) {
+        this.source = source;
+        this.columns = columns;
+        this.size = size;
+        this.index = new LogIndex(this);
+        this.rollup = new Rollup(this);
+        this.timelines = new Timelines(this, index.userIds());
+        this.sketches = new DaySketches(this);
+    }
+
+    private static Columns trimmed(LogStore rows) {
+        rows.trimToSize();
+        rows.sortByDate();
+        return new Columns.Heap(rows.dates, rows.ips, rows.users, rows.events, rows.eventNums, rows.statuses);
+    }
+
+    long date(int row) {
+        return columns.date(row);
+    }
+
+    int ip(int row) {
+        return columns.ip(row);
+    }
+
+    int user(int row) {
+        return columns.user(row);
+    }
+
+    int event(int row) {
+        return columns.event(row);
+    }
+
+    int task(int row) {
+        return columns.task(row);
+    }
+
+    int status(int row) {
+        return columns.status(row);
+    }
+
+    // bit row of words[code] for every row with that event, see ColumnScan
+    void selectEvents(long[][] words) {
+        columns.selectEvents(size, words);
+    }
+
+    void selectStatuses(long[][] words) {
+        columns.selectStatuses(size, words);
+    }
+
+    // Date sorted segments of the rows, so that the segments of a large file cover consecutive
+    // date ranges that queries can skip.
+    static List<Segment> partition(Path source, LogStore rows) {
+        if (rows.size <= PARTITION_ROWS) {
+            return List.of(new Segment(source, rows));
+        }
+        rows.sortByDate();
+        List<Segment> segments = new ArrayList<>();
+        for (int from = 0; from < rows.size; from += PARTITION_ROWS) {
+            int to = Math.min(rows.size, from + PARTITION_ROWS);
+            segments.add(new Segment(source, Arrays.copyOfRange(rows.dates, from, to), Arrays.copyOfRange(rows.ips, from, to),
+                    Arrays.copyOfRange(rows.users, from, to), Arrays.copyOfRange(rows.events, from, to),
+                    Arrays.copyOfRange(rows.eventNums, from, to), Arrays.copyOfRange(rows.statuses, from, to)));
+        }
+        return segments;
+    }
+
+    long minDate() {
+        return size == 0 ? Long.MAX_VALUE : date(0);
+    }
+
+    long maxDate() {
+        return size == 0 ? Long.MIN_VALUE : date(size - 1);
+    }
+
+    // index of the first row with a date strictly after the given one
+    int firstAfter(long date) {
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (date(mid) <= date) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // index of the first row with a date equal to or after the given one
+    int firstNotBefore(long date) {
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (date(mid) < date) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
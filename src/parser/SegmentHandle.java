@@ -0,0 +1,137 @@
+package parser;
+
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// A segment as seen by queries. Its date range and the ids, events and statuses it contains are
+// always in memory, so queries skip the segment without touching its rows. The rows of a segment
+// read from the snapshot file stay in the mapped file until a query needs them and are then held
+// softly: segments no query touched lately are dropped again when memory runs short. Off heap,
+// the loaded segment reads its rows from the mapping, so only its indexes are held.
+class SegmentHandle {
+    final Path source;
+    final int size;
+    final long minDate;
+    final long maxDate;
+    // sorted distinct ids
+    final int[] ips;
+    final int[] users;
+    // bits by ordinal
+    final int events;
+    final int statuses;
+    // set for segments that were parsed, which have no stored columns to reload from
+    private final Segment segment;
+    private final ByteBuffer columns;
+    private final boolean offHeap;
+    private volatile SoftReference<Segment> loaded;
+
+    SegmentHandle(Segment segment) {
+        this.source = segment.source;
+        this.size = segment.size;
+        this.minDate = segment.minDate();
+        this.maxDate = segment.maxDate();
+        this.ips = segment.index.ipIds();
+        this.users = segment.index.userIds();
+        this.events = segment.index.eventMask();
+        this.statuses = segment.index.statusMask();
+        this.segment = segment;
+        this.columns = null;
+        this.offHeap = false;
+    }
+
+    SegmentHandle(Path source, int size, long minDate, long maxDate, int[] ips, int[] users, int events, int statuses, ByteBuffer columns, boolean offHeap) {
+        this.source = source;
+        this.size = size;
+        this.minDate = minDate;
+        this.maxDate = maxDate;
+        this.ips = ips;
+        this.users = users;
+        this.events = events;
+        this.statuses = statuses;
+        this.segment = null;
+        this.columns = columns;
+        this.offHeap = offHeap;
+    }
+
+    private SegmentHandle(Path source, SegmentHandle handle) {
+        this.source = source;
+        this.size = handle.size;
+        this.minDate = handle.minDate;
+        this.maxDate = handle.maxDate;
+        this.ips = handle.ips;
+        this.users = handle.users;
+        this.events = handle.events;
+        this.statuses = handle.statuses;
+        this.segment = handle.segment;
+        this.columns = handle.columns;
+        this.offHeap = handle.offHeap;
+        this.loaded = handle.loaded;
+    }
+
+    // the same rows as a segment of the file the source was renamed to
+    SegmentHandle movedTo(Path source) {
+        return new SegmentHandle(source, this);
+    }
+
+    // the same segment with its rows in the given stored columns
+    SegmentHandle stored(ByteBuffer columns, boolean offHeap) {
+        return new SegmentHandle(source, size, minDate, maxDate, ips, users, events, statuses, columns, offHeap);
+    }
+
+    Segment segment() {
+        if (segment != null) {
+            return segment;
+        }
+        SoftReference<Segment> reference = loaded;
+        Segment result = reference == null ? null : reference.get();
+        if (result == null) {
+            synchronized (this) {
+                reference = loaded;
+                result = reference == null ? null : reference.get();
+                if (result == null) {
+                    result = offHeap ? new Segment(source, new Columns.Mapped(columns.duplicate(), size), size)
+                            : SnapshotFile.readSegment(columns.duplicate(), source, size);
+                    loaded = new SoftReference<>(result);
+                }
+            }
+        }
+        return result;
+    }
+
+    // the stored columns, or null when the segment is on the heap
+    ByteBuffer columns() {
+        if (segment != null) {
+            return null;
+        }
+        SoftReference<Segment> reference = loaded;
+        return !offHeap && reference != null && reference.get() != null ? null : columns.duplicate();
+    }
+
+    // whether some rows may be strictly between the bounds
+    boolean overlaps(long after, long before) {
+        return size > 0 && maxDate > after && minDate < before;
+    }
+
+    // whether all rows are strictly between the bounds
+    boolean within(long after, long before) {
+        return minDate > after && maxDate < before;
+    }
+
+    boolean hasIp(int id) {
+        return Arrays.binarySearch(ips, id) >= 0;
+    }
+
+    boolean hasUser(int id) {
+        return Arrays.binarySearch(users, id) >= 0;
+    }
+
+    boolean hasEvent(int code) {
+        return (events & 1 << code) != 0;
+    }
+
+    boolean hasStatus(int code) {
+        return (statuses & 1 << code) != 0;
+    }
+}
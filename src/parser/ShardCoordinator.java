@@ -0,0 +1,418 @@
+package parser;
+
+import parser.query.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Scatter-gather over several LogParsers: the log files of logDir are split by the hash of their
+// names across worker processes on this host (ShardWorker), each parsing and indexing only its
+// share. A query goes to all workers at once and their partial results are merged: sets are
+// united, distinct counts are the size of the united set, row counts and the counts per task are
+// summed, and a first date is the earliest of the workers'. Adding workers spreads the parsing,
+// the memory and the scans over more processes.
+public class ShardCoordinator implements IPQuery, UserQuery, DateQuery, EventQuery, QLQuery, AutoCloseable {
+    private final QueryCompiler queryCompiler = new QueryCompiler(new DateDecoder(TimeZone.getDefault()));
+    private final List<Worker> workers = new ArrayList<>();
+    private final ExecutorService pool = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "ShardCoordinator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ShardCoordinator(Path logDir, int workers) throws IOException {
+        this(logDir, workers, Math.max(1, Runtime.getRuntime().availableProcessors() / workers));
+    }
+
+    // parallelism is that of the LogParser of each worker
+    public ShardCoordinator(Path logDir, int workers, int parallelism) throws IOException {
+        // all processes are started before waiting for any, so the shards load in parallel
+        List<Process> processes = new ArrayList<>();
+        try {
+            for (int shard = 0; shard < workers; shard++) {
+                processes.add(start(logDir, shard, workers, parallelism));
+            }
+            for (int shard = 0; shard < workers; shard++) {
+                this.workers.add(new Worker(processes.get(shard), shard));
+            }
+        } catch (IOException e) {
+            for (Process process : processes) {
+                process.destroy();
+            }
+            close();
+            throw e;
+        }
+    }
+
+    // a JVM like this one, with the same class path, modules, time zone, charset and parser properties
+    private static Process start(Path logDir, int shard, int shards, int parallelism) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            command.add("--add-modules");
+            command.add("jdk.incubator.vector");
+        }
+        command.add("-Duser.timezone=" + TimeZone.getDefault().getID());
+        command.add("-Dfile.encoding=" + Charset.defaultCharset().name());
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("parser.")) {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        command.add(ShardWorker.class.getName());
+        command.add(logDir.toAbsolutePath().toString());
+        command.add(String.valueOf(shard));
+        command.add(String.valueOf(shards));
+        command.add(String.valueOf(parallelism));
+        return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    public int getWorkers() {
+        return workers.size();
+    }
+
+    // Starts following logDir in every worker, see LogParser.follow.
+    public void follow() {
+        call("follow");
+    }
+
+    // Stops the workers; each saves its shard like LogParser.close.
+    @Override
+    public void close() {
+        for (Worker worker : workers) {
+            worker.close();
+        }
+        workers.clear();
+        pool.shutdown();
+    }
+
+    // the results of the call from all workers, in shard order
+    private List<Object> call(String method, Object... args) {
+        List<Future<Object>> futures = new ArrayList<>();
+        for (Worker worker : workers) {
+            futures.add(pool.submit(() -> worker.call(method, args)));
+        }
+        List<Object> results = new ArrayList<>();
+        for (Future<Object> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for " + method, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Set<T> union(String method, Object... args) {
+        Set<T> result = new HashSet<>();
+        for (Object part : call(method, args)) {
+            result.addAll((Set<T>) part);
+        }
+        return result;
+    }
+
+    private int sum(String method, Object... args) {
+        int result = 0;
+        for (Object part : call(method, args)) {
+            result += (Integer) part;
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Integer, Integer> sumByTask(String method, Object... args) {
+        Map<Integer, Integer> result = new HashMap<>();
+        for (Object part : call(method, args)) {
+            ((Map<Integer, Integer>) part).forEach((task, count) -> result.merge(task, count, Integer::sum));
+        }
+        return result;
+    }
+
+    private Date earliest(String method, Object... args) {
+        Date result = null;
+        for (Object part : call(method, args)) {
+            if (part != null && (result == null || ((Date) part).before(result))) {
+                result = (Date) part;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int getNumberOfUniqueIPs(Date after, Date before) {
+        return getUniqueIPs(after, before).size();
+    }
+
+    @Override
+    public Set<String> getUniqueIPs(Date after, Date before) {
+        return union("getUniqueIPs", after, before);
+    }
+
+    @Override
+    public Set<String> getIPsForUser(String user, Date after, Date before) {
+        return union("getIPsForUser", user, after, before);
+    }
+
+    @Override
+    public Set<String> getIPsForEvent(Event event, Date after, Date before) {
+        return union("getIPsForEvent", event, after, before);
+    }
+
+    @Override
+    public Set<String> getIPsForStatus(Status status, Date after, Date before) {
+        return union("getIPsForStatus", status, after, before);
+    }
+
+    @Override
+    public Set<String> getAllUsers() {
+        return union("getAllUsers");
+    }
+
+    @Override
+    public int getNumberOfUsers(Date after, Date before) {
+        return getUsers(after, before).size();
+    }
+
+    public Set<String> getUsers(Date after, Date before) {
+        return union("getUsers", after, before);
+    }
+
+    @Override
+    public int getNumberOfUserEvents(String user, Date after, Date before) {
+        return union("getEventsForUser", user, after, before).size();
+    }
+
+    @Override
+    public Set<String> getUsersForIP(String ip, Date after, Date before) {
+        return union("getUsersForIP", ip, after, before);
+    }
+
+    @Override
+    public Set<String> getLoggedUsers(Date after, Date before) {
+        return union("getLoggedUsers", after, before);
+    }
+
+    @Override
+    public Set<String> getDownloadedPluginUsers(Date after, Date before) {
+        return union("getDownloadedPluginUsers", after, before);
+    }
+
+    @Override
+    public Set<String> getWroteMessageUsers(Date after, Date before) {
+        return union("getWroteMessageUsers", after, before);
+    }
+
+    @Override
+    public Set<String> getSolvedTaskUsers(Date after, Date before) {
+        return union("getSolvedTaskUsers", after, before);
+    }
+
+    @Override
+    public Set<String> getSolvedTaskUsers(Date after, Date before, int task) {
+        return union("getSolvedTaskUsers", after, before, task);
+    }
+
+    @Override
+    public Set<String> getDoneTaskUsers(Date after, Date before) {
+        return union("getDoneTaskUsers", after, before);
+    }
+
+    @Override
+    public Set<String> getDoneTaskUsers(Date after, Date before, int task) {
+        return union("getDoneTaskUsers", after, before, task);
+    }
+
+    @Override
+    public Set<Date> getDatesForUserAndEvent(String user, Event event, Date after, Date before) {
+        return union("getDatesForUserAndEvent", user, event, after, before);
+    }
+
+    @Override
+    public Set<Date> getDatesWhenSomethingFailed(Date after, Date before) {
+        return union("getDatesWhenSomethingFailed", after, before);
+    }
+
+    @Override
+    public Set<Date> getDatesWhenErrorHappened(Date after, Date before) {
+        return union("getDatesWhenErrorHappened", after, before);
+    }
+
+    @Override
+    public Date getDateWhenUserLoggedFirstTime(String user, Date after, Date before) {
+        return earliest("getDateWhenUserLoggedFirstTime", user, after, before);
+    }
+
+    @Override
+    public Date getDateWhenUserSolvedTask(String user, int task, Date after, Date before) {
+        return earliest("getDateWhenUserSolvedTask", user, task, after, before);
+    }
+
+    @Override
+    public Date getDateWhenUserDoneTask(String user, int task, Date after, Date before) {
+        return earliest("getDateWhenUserDoneTask", user, task, after, before);
+    }
+
+    @Override
+    public Set<Date> getDatesWhenUserWroteMessage(String user, Date after, Date before) {
+        return union("getDatesWhenUserWroteMessage", user, after, before);
+    }
+
+    @Override
+    public Set<Date> getDatesWhenUserDownloadedPlugin(String user, Date after, Date before) {
+        return union("getDatesWhenUserDownloadedPlugin", user, after, before);
+    }
+
+    @Override
+    public int getNumberOfAllEvents(Date after, Date before) {
+        return getAllEvents(after, before).size();
+    }
+
+    @Override
+    public Set<Event> getAllEvents(Date after, Date before) {
+        return union("getAllEvents", after, before);
+    }
+
+    @Override
+    public Set<Event> getEventsForIP(String ip, Date after, Date before) {
+        return union("getEventsForIP", ip, after, before);
+    }
+
+    @Override
+    public Set<Event> getEventsForUser(String user, Date after, Date before) {
+        return union("getEventsForUser", user, after, before);
+    }
+
+    @Override
+    public Set<Event> getFailedEvents(Date after, Date before) {
+        return union("getFailedEvents", after, before);
+    }
+
+    @Override
+    public Set<Event> getErrorEvents(Date after, Date before) {
+        return union("getErrorEvents", after, before);
+    }
+
+    @Override
+    public int getNumberOfAttemptToSolveTask(int task, Date after, Date before) {
+        return sum("getNumberOfAttemptToSolveTask", task, after, before);
+    }
+
+    @Override
+    public int getNumberOfSuccessfulAttemptToSolveTask(int task, Date after, Date before) {
+        return sum("getNumberOfSuccessfulAttemptToSolveTask", task, after, before);
+    }
+
+    @Override
+    public Map<Integer, Integer> getAllSolvedTasksAndTheirNumber(Date after, Date before) {
+        return sumByTask("getAllSolvedTasksAndTheirNumber", after, before);
+    }
+
+    @Override
+    public Map<Integer, Integer> getAllDoneTasksAndTheirNumber(Date after, Date before) {
+        return sumByTask("getAllDoneTasksAndTheirNumber", after, before);
+    }
+
+    // The query is compiled here first, so a malformed one fails without a round trip. The
+    // sketches of the workers hash worker local ids and cannot be merged, so an approximate
+    // count is the exact size of the united values. Counts, groups and tops are merged from what
+    // each worker contributes, see Aggregation.partial.
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<Object> execute(String query) throws ParseException {
+        QueryPlan plan = queryCompiler.compile(query);
+        if (plan.aggregate == null) {
+            return union("execute", query);
+        }
+        switch (plan.aggregate) {
+            case APPROX_COUNT:
+                Set<String> values = plan.select == QueryPlan.Field.IP ? getUniqueIPs(plan.after, plan.before) : getUsers(plan.after, plan.before);
+                return Collections.singleton(values.size());
+            case COUNT:
+                return Collections.singleton(union("partial", query).size());
+            case GROUP_BY:
+                Map<Object, Set<Object>> groups = new HashMap<>();
+                for (Object part : call("partial", query)) {
+                    ((Map<Object, Set<Object>>) part).forEach((group, groupValues) -> groups.computeIfAbsent(group, key -> new HashSet<>()).addAll(groupValues));
+                }
+                Map<Object, Integer> counts = new HashMap<>();
+                groups.forEach((group, groupValues) -> counts.put(group, groupValues.size()));
+                return Aggregation.groupCounts(counts);
+            default:
+                Map<Object, Integer> rows = new HashMap<>();
+                for (Object part : call("partial", query)) {
+                    ((Map<Object, Integer>) part).forEach((value, count) -> rows.merge(value, count, Integer::sum));
+                }
+                return Aggregation.top(rows, plan.limit);
+        }
+    }
+
+    // a worker process and the connection to it; calls on one connection are answered in order
+    private static class Worker {
+        private final Process process;
+        private final ShardProtocol protocol;
+
+        Worker(Process process, int shard) throws IOException {
+            this.process = process;
+            BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), Charset.defaultCharset()));
+            String line;
+            while ((line = output.readLine()) != null && !line.startsWith(ShardProtocol.READY)) {
+                // not from the worker protocol, e.g. a JVM warning
+            }
+            if (line == null) {
+                throw new IOException("Shard worker " + shard + " exited before listening");
+            }
+            int port = Integer.parseInt(line.substring(ShardProtocol.READY.length()).trim());
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            this.protocol = new ShardProtocol(socket);
+        }
+
+        synchronized Object call(String method, Object[] args) {
+            try {
+                protocol.writeCall(method, args);
+                return protocol.readResult();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // closing its standard input stops the worker
+        void close() {
+            try {
+                protocol.close();
+                process.getOutputStream().close();
+                if (!process.waitFor(1, TimeUnit.MINUTES)) {
+                    process.destroy();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
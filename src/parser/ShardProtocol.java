@@ -0,0 +1,84 @@
+package parser;
+
+import java.io.*;
+import java.net.Socket;
+
+// The calls between a ShardCoordinator and its workers, over a loopback socket: a call is the
+// method name and its arguments, the reply a flag and either the result or the error message.
+// Both sides only deserialize the types of query arguments and results.
+class ShardProtocol {
+    // first line a worker prints, followed by its port
+    static final String READY = "shard listening on port ";
+
+    private static final ObjectInputFilter FILTER =
+            ObjectInputFilter.Config.createFilter("maxdepth=8;java.lang.*;java.util.*;parser.Event;parser.Status;!*");
+
+    private final Socket socket;
+    private final ObjectOutputStream out;
+    private final ObjectInputStream in;
+
+    ShardProtocol(Socket socket) throws IOException {
+        this.socket = socket;
+        this.out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.flush();
+        this.in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+        in.setObjectInputFilter(FILTER);
+    }
+
+    // name and arity of a call; overloads of the query interfaces differ in their arity
+    static String call(String method, int arity) {
+        return method + "/" + arity;
+    }
+
+    void writeCall(String method, Object[] args) throws IOException {
+        out.writeUTF(method);
+        out.writeObject(args);
+        flush();
+    }
+
+    String readMethod() throws IOException {
+        return in.readUTF();
+    }
+
+    Object[] readArgs() throws IOException {
+        return (Object[]) readObject();
+    }
+
+    void writeResult(Object result) throws IOException {
+        out.writeBoolean(true);
+        out.writeObject(result);
+        flush();
+    }
+
+    void writeError(String message) throws IOException {
+        out.writeBoolean(false);
+        out.writeUTF(message);
+        flush();
+    }
+
+    // the result of the call, or an IllegalStateException with the message of the worker
+    Object readResult() throws IOException {
+        if (!in.readBoolean()) {
+            throw new IllegalStateException(in.readUTF());
+        }
+        return readObject();
+    }
+
+    private Object readObject() throws IOException {
+        try {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(e.getMessage());
+        }
+    }
+
+    // the stream does not keep references to the objects written, as it would across calls
+    private void flush() throws IOException {
+        out.reset();
+        out.flush();
+    }
+
+    void close() throws IOException {
+        socket.close();
+    }
+}
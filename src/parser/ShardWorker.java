@@ -0,0 +1,116 @@
+package parser;
+
+import parser.query.*;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// One shard of a ShardCoordinator: a LogParser over the log files whose names hash to the shard,
+// answering calls on a loopback port. Started by the coordinator as
+//   java parser.ShardWorker <logDir> <shard> <shards> <parallelism>
+// it prints the port once the files are loaded, and exits when its standard input is closed, so
+// it does not outlive the coordinator.
+class ShardWorker {
+    // the methods a coordinator may call, by name and arity
+    private static final Map<String, Method> CALLS = new HashMap<>();
+
+    static {
+        for (Class<?> type : List.of(IPQuery.class, UserQuery.class, DateQuery.class, EventQuery.class, QLQuery.class)) {
+            for (Method method : type.getMethods()) {
+                CALLS.put(ShardProtocol.call(method.getName(), method.getParameterCount()), method);
+            }
+        }
+        try {
+            CALLS.put(ShardProtocol.call("getUsers", 2), LogParser.class.getMethod("getUsers", Date.class, Date.class));
+            CALLS.put(ShardProtocol.call("follow", 0), LogParser.class.getMethod("follow"));
+            CALLS.put(ShardProtocol.call("partial", 1), LogParser.class.getDeclaredMethod("partial", String.class));
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final LogParser parser;
+
+    private ShardWorker(LogParser parser) {
+        this.parser = parser;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int shard = Integer.parseInt(args[1]);
+        int shards = Integer.parseInt(args[2]);
+        LogParser parser = new LogParser(Paths.get(args[0]), Integer.parseInt(args[3]), shard, shards);
+        ShardWorker worker = new ShardWorker(parser);
+        ServerSocket server = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> worker.accept(server), "ShardWorker " + shard + " of " + shards);
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println(ShardProtocol.READY + server.getLocalPort());
+        System.out.flush();
+        while (System.in.read() >= 0) {
+            // the coordinator writes nothing, it only closes the stream
+        }
+        server.close();
+        parser.close();
+        System.exit(0);
+    }
+
+    private void accept(ServerSocket server) {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread connection = new Thread(() -> serve(socket), "ShardWorker connection");
+                connection.setDaemon(true);
+                connection.start();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // answers the calls of one connection in order until it is closed
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            ShardProtocol protocol = new ShardProtocol(socket);
+            while (true) {
+                String method = protocol.readMethod();
+                Object[] args = protocol.readArgs();
+                Method target = CALLS.get(ShardProtocol.call(method, args.length));
+                if (target == null) {
+                    protocol.writeError("Unknown call: " + method + " with " + args.length + " arguments");
+                    continue;
+                }
+                Object result;
+                try {
+                    result = target.invoke(parser, args);
+                } catch (InvocationTargetException e) {
+                    protocol.writeError(String.valueOf(e.getCause()));
+                    continue;
+                } catch (IllegalAccessException | IllegalArgumentException e) {
+                    protocol.writeError(String.valueOf(e));
+                    continue;
+                }
+                protocol.writeResult(result);
+            }
+        } catch (IOException e) {
+            // closed by the coordinator
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
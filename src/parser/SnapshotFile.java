@@ -0,0 +1,335 @@
+package parser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+// Binary image of the parsed segments and the tables, kept next to the logs so that a restart
+// only reparses the log files that changed since it was written. Layout, big endian:
+//   magic, version, header length, header, columns of every segment
+// The header holds the time zone and charset the logs were decoded with, both tables, and for
+// each source file its name, loaded length, offset (the length of its complete lines, see
+// LogLoader), mtime and for each of its segments the row count and the summaries of
+// SegmentHandle. Columns are memory-mapped and only copied, and the indexes
+// rebuilt, when a query first needs the segment. Off heap, columns are never copied: queries read
+// them in the mapping, and parsed segments are spilled to a mapped file until the snapshot that
+// takes them over is written.
+class SnapshotFile {
+    static final String NAME = "logparser.snapshot";
+
+    private static final int MAGIC = 0x4C505346;
+    private static final int VERSION = 3;
+    private static final int PREFIX_BYTES = 12;
+    // date, ip, user, event, task, status
+    private static final long ROW_BYTES = 8 + 4 + 4 + 1 + 4 + 1;
+
+    private final Path logDir;
+    private final Path file;
+    private final Path spillFile;
+    private final String timeZone;
+    private final String charset = Charset.defaultCharset().name();
+    private final boolean offHeap;
+    private int storedFiles;
+    private FileChannel spill;
+
+    SnapshotFile(Path logDir, String name, TimeZone timeZone, boolean offHeap) {
+        this.logDir = logDir;
+        this.file = logDir.resolve(name);
+        this.spillFile = logDir.resolve(name + ".spill");
+        this.timeZone = timeZone.getID();
+        this.offHeap = offHeap;
+    }
+
+    // number of source files in the snapshot last read, changed or not
+    int storedFiles() {
+        return storedFiles;
+    }
+
+    // Segments of the source files that are unchanged since the snapshot was written, with their
+    // offsets recorded, and their loaded lengths in tails when their last line has no line break.
+    // The tables must be empty and receive the stored ids. A missing, foreign or unreadable
+    // snapshot yields no segments.
+    Map<Path, List<SegmentHandle>> read(IpTable ipTable, SymbolTable userTable, Map<Path, Long> offsets, Map<Path, Long> tails) {
+        Map<Path, List<SegmentHandle>> result = new HashMap<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < PREFIX_BYTES) {
+                return result;
+            }
+            ByteBuffer prefix = channel.map(FileChannel.MapMode.READ_ONLY, 0, PREFIX_BYTES);
+            if (prefix.getInt() != MAGIC || prefix.getInt() != VERSION) {
+                return result;
+            }
+            int headerLength = prefix.getInt();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, PREFIX_BYTES, headerLength);
+            if (!timeZone.equals(readString(header)) || !charset.equals(readString(header))) {
+                return result;
+            }
+            ipTable.read(header);
+            userTable.read(header);
+            storedFiles = header.getInt();
+            long position = PREFIX_BYTES + headerLength;
+            Map<Path, List<SegmentHandle>> stored = new LinkedHashMap<>();
+            for (int i = 0; i < storedFiles; i++) {
+                Path source = logDir.resolve(readString(header));
+                long size = header.getLong();
+                long offset = header.getLong();
+                long modified = header.getLong();
+                int segments = header.getInt();
+                boolean unchanged = isUnchanged(source, size, modified);
+                List<SegmentHandle> sourceSegments = new ArrayList<>();
+                for (int j = 0; j < segments; j++) {
+                    int rows = header.getInt();
+                    long minDate = header.getLong();
+                    long maxDate = header.getLong();
+                    int events = header.getInt();
+                    int statuses = header.getInt();
+                    int[] ips = readInts(header, header.getInt());
+                    int[] users = readInts(header, header.getInt());
+                    if (unchanged) {
+                        // the mapping stays valid when the file is replaced later on
+                        ByteBuffer columns = channel.map(FileChannel.MapMode.READ_ONLY, position, rows * ROW_BYTES);
+                        sourceSegments.add(new SegmentHandle(source, rows, minDate, maxDate, ips, users, events, statuses, columns, offHeap));
+                    }
+                    position += rows * ROW_BYTES;
+                }
+                if (unchanged) {
+                    stored.put(source, sourceSegments);
+                    offsets.put(source, offset);
+                    if (size > offset) {
+                        tails.put(source, size);
+                    }
+                }
+            }
+            result.putAll(stored);
+        } catch (NoSuchFileException e) {
+            // first start
+        } catch (IOException | BufferUnderflowException e) {
+            e.printStackTrace();
+        }
+        if (result.size() < offsets.size()) {
+            // a failed read leaves partial offsets behind, those files are reparsed
+            offsets.keySet().retainAll(result.keySet());
+            tails.keySet().retainAll(result.keySet());
+        }
+        return result;
+    }
+
+    // Writes the snapshot to a temporary file that then replaces the previous one. Every file
+    // in offsets is recorded, also those without rows, so that it is not reparsed either. Files
+    // that no longer exist are left out and removed from offsets. Off heap, returns the segments
+    // over the columns of the new file; otherwise, or when the write failed, null.
+    List<SegmentHandle> write(LogSnapshot snapshot, IpTable ipTable, SymbolTable userTable, Map<Path, Long> offsets, Map<Path, Long> tails) {
+        Map<Path, List<SegmentHandle>> sources = new TreeMap<>();
+        for (Path source : offsets.keySet()) {
+            sources.put(source, new ArrayList<>());
+        }
+        for (SegmentHandle segment : snapshot.segments) {
+            sources.computeIfAbsent(segment.source, source -> new ArrayList<>()).add(segment);
+        }
+        // read up front: a file removed after this is recorded, and skipped when the snapshot is read
+        Map<Path, Long> modified = new HashMap<>();
+        for (Iterator<Path> iterator = sources.keySet().iterator(); iterator.hasNext(); ) {
+            Path source = iterator.next();
+            try {
+                modified.put(source, Files.getLastModifiedTime(source).toMillis());
+            } catch (NoSuchFileException e) {
+                iterator.remove();
+                offsets.remove(source);
+                tails.remove(source);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(header, 1 << 16));
+            writeString(out, timeZone);
+            writeString(out, charset);
+            ipTable.write(out);
+            userTable.write(out);
+            out.writeInt(sources.size());
+            for (Map.Entry<Path, List<SegmentHandle>> entry : sources.entrySet()) {
+                Path source = entry.getKey();
+                writeString(out, logDir.relativize(source).toString());
+                long offset = offsets.getOrDefault(source, 0L);
+                out.writeLong(tails.getOrDefault(source, offset));
+                out.writeLong(offset);
+                out.writeLong(modified.get(source));
+                out.writeInt(entry.getValue().size());
+                for (SegmentHandle segment : entry.getValue()) {
+                    out.writeInt(segment.size);
+                    out.writeLong(segment.minDate);
+                    out.writeLong(segment.maxDate);
+                    out.writeInt(segment.events);
+                    out.writeInt(segment.statuses);
+                    writeInts(out, segment.ips);
+                    writeInts(out, segment.users);
+                }
+            }
+            out.flush();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer prefix = ByteBuffer.allocate(PREFIX_BYTES).putInt(MAGIC).putInt(VERSION).putInt(header.size());
+                writeFully(channel, prefix.flip());
+                writeFully(channel, ByteBuffer.wrap(header.toByteArray()));
+                for (List<SegmentHandle> segments : sources.values()) {
+                    for (SegmentHandle segment : segments) {
+                        ByteBuffer columns = segment.columns();
+                        if (columns != null) {
+                            writeFully(channel, columns);
+                        } else {
+                            writeSegment(channel, segment.segment());
+                        }
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return offHeap ? map(sources, PREFIX_BYTES + header.size()) : null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // the segments of the sources over the columns of the file, which start at position
+    private List<SegmentHandle> map(Map<Path, List<SegmentHandle>> sources, long position) throws IOException {
+        List<SegmentHandle> result = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (List<SegmentHandle> segments : sources.values()) {
+                for (SegmentHandle segment : segments) {
+                    result.add(segment.stored(channel.map(FileChannel.MapMode.READ_ONLY, position, segment.size * ROW_BYTES), true));
+                    position += segment.size * ROW_BYTES;
+                }
+            }
+        }
+        return result;
+    }
+
+    // Appends the columns of a parsed segment to the spill file and returns the segment over
+    // them, so that the parsed rows can be dropped from the heap before the snapshot is written.
+    SegmentHandle spill(Segment segment) throws IOException {
+        if (spill == null) {
+            spill = FileChannel.open(spillFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        long position = spill.size();
+        spill.position(position);
+        writeSegment(spill, segment);
+        return new SegmentHandle(segment).stored(spill.map(FileChannel.MapMode.READ_ONLY, position, segment.size * ROW_BYTES), true);
+    }
+
+    // the mappings of spilled segments stay valid after the file is deleted
+    void deleteSpill() {
+        if (spill == null) {
+            return;
+        }
+        try {
+            spill.close();
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        spill = null;
+    }
+
+    private static boolean isUnchanged(Path source, long size, long modified) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+            return attributes.size() == size && attributes.lastModifiedTime().toMillis() == modified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // the segment stored in the columns of a snapshot file
+    static Segment readSegment(ByteBuffer in, Path source, int rows) {
+        long[] dates = new long[rows];
+        in.asLongBuffer().get(dates);
+        in.position(in.position() + rows * 8);
+        int[] ips = readInts(in, rows);
+        int[] users = readInts(in, rows);
+        byte[] events = new byte[rows];
+        in.get(events);
+        int[] eventNums = readInts(in, rows);
+        byte[] statuses = new byte[rows];
+        in.get(statuses);
+        return new Segment(source, dates, ips, users, events, eventNums, statuses);
+    }
+
+    private static int[] readInts(ByteBuffer in, int count) {
+        int[] values = new int[count];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + count * 4);
+        return values;
+    }
+
+    private static void writeSegment(FileChannel channel, Segment segment) throws IOException {
+        int rows = segment.size;
+        ByteBuffer columns = ByteBuffer.allocate((int) (rows * ROW_BYTES));
+        for (int row = 0; row < rows; row++) {
+            columns.putLong(segment.date(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            columns.putInt(segment.ip(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            columns.putInt(segment.user(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            columns.put((byte) segment.event(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            columns.putInt(segment.task(row));
+        }
+        for (int row = 0; row < rows; row++) {
+            columns.put((byte) segment.status(row));
+        }
+        writeFully(channel, columns.flip());
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] encoded = new byte[in.getInt()];
+        in.get(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+}
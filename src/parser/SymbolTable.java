@@ -0,0 +1,169 @@
+package parser;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+// Interns strings into dense int ids. The symbols are kept only as encoded bytes in one
+// shared pool; a String is created when a symbol is looked up by id.
+// Writers are serialized and lookups take no lock, in the same way as in IpTable: new symbols
+// only go past the published size and become visible with the next State.
+class SymbolTable {
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private volatile State state = new State(new byte[256], new int[17], new int[16], new int[16], 0);
+
+    synchronized int intern(ByteBuffer buffer, int from, int to) {
+        int hash = hash(buffer, from, to);
+        int id = find(state, buffer, from, to, hash);
+        return id >= 0 ? id : add(buffer, from, to, hash);
+    }
+
+    synchronized int intern(String value) {
+        byte[] encoded = value.getBytes(CHARSET);
+        return intern(ByteBuffer.wrap(encoded), 0, encoded.length);
+    }
+
+    // copies a symbol of another table into this one
+    synchronized int intern(SymbolTable source, int id) {
+        State state = source.state;
+        return intern(ByteBuffer.wrap(state.pool), state.offsets[id], state.offsets[id + 1]);
+    }
+
+    int idOf(String value) {
+        byte[] encoded = value.getBytes(CHARSET);
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        return find(state, buffer, 0, encoded.length, hash(buffer, 0, encoded.length));
+    }
+
+    String valueOf(int id) {
+        State state = this.state;
+        return new String(state.pool, state.offsets[id], state.offsets[id + 1] - state.offsets[id], CHARSET);
+    }
+
+    int size() {
+        return state.size;
+    }
+
+    // the symbol offsets followed by the pool
+    synchronized void write(DataOutputStream out) throws IOException {
+        State state = this.state;
+        int size = state.size;
+        int[] offsets = state.offsets;
+        out.writeInt(size);
+        for (int id = 0; id <= size; id++) {
+            out.writeInt(offsets[id]);
+        }
+        out.write(state.pool, 0, offsets[size]);
+    }
+
+    // interns the symbols written by write, so an empty table gets the same ids
+    synchronized void read(ByteBuffer in) {
+        int count = in.getInt();
+        int[] starts = new int[count + 1];
+        for (int id = 0; id <= count; id++) {
+            starts[id] = in.getInt();
+        }
+        int base = in.position();
+        for (int id = 0; id < count; id++) {
+            intern(in, base + starts[id], base + starts[id + 1]);
+        }
+        in.position(base + starts[count]);
+    }
+
+    private static int find(State state, ByteBuffer buffer, int from, int to, int hash) {
+        int[] slots = state.slots;
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            // slots may already hold ids the writer has not published yet
+            if (id < state.size && state.hashes[id] == hash && equals(state, id, buffer, from, to)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    private int add(ByteBuffer buffer, int from, int to, int hash) {
+        State state = this.state;
+        int size = state.size;
+        byte[] pool = state.pool;
+        int[] offsets = state.offsets;
+        int[] hashes = state.hashes;
+        int[] slots = state.slots;
+        int length = to - from;
+        int start = offsets[size];
+        if (start + length > pool.length) {
+            pool = Arrays.copyOf(pool, Math.max(start + length, pool.length * 2));
+        }
+        buffer.get(from, pool, start, length);
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2 + 1);
+        }
+        int id = size++;
+        offsets[size] = start + length;
+        hashes[id] = hash;
+        if (2 * size > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int i = 0; i < size; i++) {
+                insert(slots, hashes, i);
+            }
+        } else {
+            insert(slots, hashes, id);
+        }
+        this.state = new State(pool, offsets, hashes, slots, size);
+        return id;
+    }
+
+    private static void insert(int[] slots, int[] hashes, int id) {
+        int mask = slots.length - 1;
+        int slot = hashes[id] & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = id + 1;
+    }
+
+    private static boolean equals(State state, int id, ByteBuffer buffer, int from, int to) {
+        byte[] pool = state.pool;
+        int start = state.offsets[id];
+        if (state.offsets[id + 1] - start != to - from) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (pool[start++] != buffer.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(ByteBuffer buffer, int from, int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class State {
+        private final byte[] pool;
+        // symbol id occupies pool[offsets[id], offsets[id + 1])
+        private final int[] offsets;
+        private final int[] hashes;
+        // open addressing table holding id + 1, 0 marks a free slot
+        private final int[] slots;
+        private final int size;
+
+        private State(byte[] pool, int[] offsets, int[] hashes, int[] slots, int size) {
+            this.pool = pool;
+            this.offsets = offsets;
+            this.hashes = hashes;
+            this.slots = slots;
+            this.size = size;
+        }
+    }
+}
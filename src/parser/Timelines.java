@@ -0,0 +1,134 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// Rows of a segment grouped by (user, event) and within a group by task, each run of one task in
+// row order. Since the rows are sorted by date, a run is the timeline of a (user, event, task):
+// its first row after a date is one binary search, and its rows between two dates are a slice.
+// Groups are numbered by the rank of the user among the users of the segment, so no map is kept.
+class Timelines {
+    private static final int EVENTS = LogStore.EVENTS.length;
+
+    private final int[] users;
+    // runs of group g are groupRuns[g] until groupRuns[g + 1]
+    private final int[] groupRuns;
+    private final int[] runTasks;
+    // rows of run r are rows[runStarts[r]] until rows[runStarts[r + 1]]
+    private final int[] runStarts;
+    private final int[] rows;
+
+    Timelines(Segment segment, int[] users) {
+        this.users = users;
+        int groupCount = users.length * EVENTS;
+        int[] groups = new int[segment.size];
+        int[] groupStarts = new int[groupCount + 1];
+        for (int row = 0; row < segment.size; row++) {
+            groups[row] = Arrays.binarySearch(users, segment.user(row)) * EVENTS + segment.event(row);
+            groupStarts[groups[row] + 1]++;
+        }
+        for (int group = 0; group < groupCount; group++) {
+            groupStarts[group + 1] += groupStarts[group];
+        }
+        // counting sort keeps the rows of a group in row order
+        rows = new int[segment.size];
+        int[] next = Arrays.copyOf(groupStarts, groupCount);
+        for (int row = 0; row < segment.size; row++) {
+            rows[next[groups[row]]++] = row;
+        }
+        groupRuns = new int[groupCount + 1];
+        int[] tasks = new int[segment.size];
+        int[] starts = new int[segment.size + 1];
+        int runCount = 0;
+        for (int group = 0; group < groupCount; group++) {
+            int from = groupStarts[group], to = groupStarts[group + 1];
+            sortByTask(segment, from, to);
+            groupRuns[group] = runCount;
+            for (int i = from; i < to; i++) {
+                int task = segment.task(rows[i]);
+                if (i == from || task != tasks[runCount - 1]) {
+                    tasks[runCount] = task;
+                    starts[runCount++] = i;
+                }
+            }
+        }
+        groupRuns[groupCount] = runCount;
+        starts[runCount] = segment.size;
+        runTasks = Arrays.copyOf(tasks, runCount);
+        runStarts = Arrays.copyOf(starts, runCount + 1);
+    }
+
+    // Orders rows[from, to) by task, then row. Groups of events without tasks are already in
+    // order and are only checked.
+    private void sortByTask(Segment segment, int from, int to) {
+        boolean sorted = true;
+        for (int i = from + 1; i < to && sorted; i++) {
+            sorted = segment.task(rows[i - 1]) <= segment.task(rows[i]);
+        }
+        if (sorted) {
+            return;
+        }
+        long[] keys = new long[to - from];
+        for (int i = from; i < to; i++) {
+            keys[i - from] = (long) segment.task(rows[i]) << 32 | rows[i];
+        }
+        Arrays.sort(keys);
+        for (int i = from; i < to; i++) {
+            rows[i] = (int) keys[i - from];
+        }
+    }
+
+    // first row of the (user, event, task) in [fromRow, toRow), or -1
+    int first(int userId, int event, int task, int fromRow, int toRow) {
+        int run = run(userId, event, task);
+        if (run < 0) {
+            return -1;
+        }
+        int i = lowerBound(runStarts[run], runStarts[run + 1], fromRow);
+        return i < runStarts[run + 1] && rows[i] < toRow ? rows[i] : -1;
+    }
+
+    // Calls the consumer with every row of the user in [fromRow, toRow), of the event or of all
+    // events when event is -1; in row order within a task. Returns the number of rows.
+    int forEach(int userId, int event, int fromRow, int toRow, IntConsumer consumer) {
+        int rank = Arrays.binarySearch(users, userId);
+        if (rank < 0) {
+            return 0;
+        }
+        int firstGroup = rank * EVENTS + (event < 0 ? 0 : event);
+        int endGroup = event < 0 ? (rank + 1) * EVENTS : firstGroup + 1;
+        int count = 0;
+        for (int run = groupRuns[firstGroup]; run < groupRuns[endGroup]; run++) {
+            int end = lowerBound(runStarts[run], runStarts[run + 1], toRow);
+            for (int i = lowerBound(runStarts[run], end, fromRow); i < end; i++) {
+                consumer.accept(rows[i]);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int run(int userId, int event, int task) {
+        int rank = Arrays.binarySearch(users, userId);
+        if (rank < 0) {
+            return -1;
+        }
+        int group = rank * EVENTS + event;
+        int run = Arrays.binarySearch(runTasks, groupRuns[group], groupRuns[group + 1], task);
+        return run < 0 ? -1 : run;
+    }
+
+    // index of the first of rows[from, to) that is at least row
+    private int lowerBound(int from, int to, int row) {
+        int low = from, high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (rows[mid] < row) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
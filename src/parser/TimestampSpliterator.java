@@ -0,0 +1,99 @@
+package parser;
+
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+// Dates of row ranges of several segments. Splits between segments first and then within a
+// segment, so parallel streams get even shares even when there are only a few segments.
+class TimestampSpliterator implements Spliterator.OfLong {
+    private static final int MIN_SPLIT = 1 << 12;
+
+    private final Segment[] segments;
+    private final int[] starts;
+    private final int[] ends;
+    // current slice, the row within it and its end; slices up to fence belong to this spliterator
+    private int index;
+    private int row;
+    private int end;
+    private int fence;
+
+    TimestampSpliterator(Segment[] segments, int[] starts, int[] ends) {
+        this(segments, starts, ends, 0, segments.length == 0 ? 0 : starts[0], segments.length == 0 ? 0 : ends[0], segments.length);
+    }
+
+    private TimestampSpliterator(Segment[] segments, int[] starts, int[] ends, int index, int row, int end, int fence) {
+        this.segments = segments;
+        this.starts = starts;
+        this.ends = ends;
+        this.index = index;
+        this.row = row;
+        this.end = end;
+        this.fence = fence;
+    }
+
+    @Override
+    public boolean tryAdvance(LongConsumer action) {
+        while (index < fence) {
+            if (row < end) {
+                action.accept(segments[index].date(row++));
+                return true;
+            }
+            if (++index < fence) {
+                row = starts[index];
+                end = ends[index];
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(LongConsumer action) {
+        while (index < fence) {
+            Segment segment = segments[index];
+            for (int i = row; i < end; i++) {
+                action.accept(segment.date(i));
+            }
+            row = end;
+            if (++index < fence) {
+                row = starts[index];
+                end = ends[index];
+            }
+        }
+    }
+
+    @Override
+    public Spliterator.OfLong trySplit() {
+        if (fence - index > 1) {
+            int mid = (index + fence + 1) >>> 1;
+            TimestampSpliterator prefix = new TimestampSpliterator(segments, starts, ends, index, row, end, mid);
+            index = mid;
+            row = starts[mid];
+            end = ends[mid];
+            return prefix;
+        }
+        if (index < fence && end - row >= 2 * MIN_SPLIT) {
+            int mid = (row + end) >>> 1;
+            TimestampSpliterator prefix = new TimestampSpliterator(segments, starts, ends, index, row, mid, index + 1);
+            row = mid;
+            return prefix;
+        }
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        if (index >= fence) {
+            return 0;
+        }
+        long size = end - row;
+        for (int i = index + 1; i < fence; i++) {
+            size += ends[i] - starts[i];
+        }
+        return size;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+}
@@ -0,0 +1,72 @@
+package parser;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// The vector loops of ColumnScan, loaded only when the jdk.incubator.vector module is present.
+// A lane compare gives the mask of a vector of rows; the mask is turned into 0/1 bytes, and a
+// multiply gathers the 8 bytes of each long lane into 8 bits (VectorMask.toLong is not an
+// intrinsic in JDK 17). The rows of a vector, at most 64, fill part of one word.
+final class VectorColumnScan {
+    private static final VectorSpecies<Byte> BYTES =
+            ByteVector.SPECIES_PREFERRED.vectorBitSize() > 512 ? ByteVector.SPECIES_512 : ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = BYTES.withLanes(long.class);
+    // moves bit 0 of byte k of a long to bit 56 + k
+    private static final long GATHER = 0x0102040810204080L;
+
+    private VectorColumnScan() {
+    }
+
+    static void select(byte[] column, int rows, long[][] words) {
+        int end = rows - rows % BYTES.length();
+        ByteVector zeros = ByteVector.zero(BYTES);
+        ByteVector ones = ByteVector.broadcast(BYTES, (byte) 1);
+        long[] packed = new long[LONGS.length()];
+        for (int code = 0; code < words.length; code++) {
+            long[] codeWords = words[code];
+            for (int row = 0; row < end; row += BYTES.length()) {
+                VectorMask<Byte> match = ByteVector.fromArray(BYTES, column, row).eq((byte) code);
+                codeWords[row >>> 6] |= bits(zeros.blend(ones, match), packed) << row;
+            }
+            for (int row = end; row < rows; row++) {
+                if (column[row] == code) {
+                    codeWords[row >>> 6] |= 1L << row;
+                }
+            }
+        }
+    }
+
+    static void select(ByteBuffer buffer, int offset, int rows, long[][] words) {
+        int end = rows - rows % BYTES.length();
+        ByteVector zeros = ByteVector.zero(BYTES);
+        ByteVector ones = ByteVector.broadcast(BYTES, (byte) 1);
+        long[] packed = new long[LONGS.length()];
+        for (int code = 0; code < words.length; code++) {
+            long[] codeWords = words[code];
+            for (int row = 0; row < end; row += BYTES.length()) {
+                VectorMask<Byte> match = ByteVector.fromByteBuffer(BYTES, buffer, offset + row, ByteOrder.nativeOrder()).eq((byte) code);
+                codeWords[row >>> 6] |= bits(zeros.blend(ones, match), packed) << row;
+            }
+            for (int row = end; row < rows; row++) {
+                if (buffer.get(offset + row) == code) {
+                    codeWords[row >>> 6] |= 1L << row;
+                }
+            }
+        }
+    }
+
+    // the 0/1 lanes as bits, lane i at bit i
+    private static long bits(ByteVector lanes, long[] packed) {
+        lanes.reinterpretAsLongs().lanewise(VectorOperators.MUL, GATHER).lanewise(VectorOperators.LSHR, 56).intoArray(packed, 0);
+        long bits = 0;
+        for (int i = 0; i < packed.length; i++) {
+            bits |= packed[i] << (i << 3);
+        }
+        return bits;
+    }
+}
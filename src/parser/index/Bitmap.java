@@ -0,0 +1,200 @@
+package parser.index;
+
+import java.util.Arrays;
+
+// Compressed bitmap of non-negative ints: values are split by their high 16 bits into
+// containers, which hold the low bits either as a sorted array or as a 65536-bit bitmap.
+public final class Bitmap {
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    public void add(int value) {
+        char key = (char) (value >>> 16);
+        int index = size > 0 && keys[size - 1] == key ? size - 1 : Arrays.binarySearch(keys, 0, size, key);
+        if (index < 0) {
+            index = -index - 1;
+            insert(index, key, new ArrayContainer());
+        }
+        containers[index] = containers[index].add((char) value);
+    }
+
+    public boolean contains(int value) {
+        int index = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    // number of values in [from, to)
+    public int cardinality(int from, int to) {
+        if (from >= to) {
+            return 0;
+        }
+        return rank(to) - rank(from);
+    }
+
+    // first value in [from, to), or -1
+    public int first(int from, int to) {
+        return cursor(from, to).next();
+    }
+
+    public Cursor cursor(int from, int to) {
+        return new Cursor(from, to);
+    }
+
+    public void trim() {
+        for (int i = 0; i < size; i++) {
+            containers[i] = containers[i].trim();
+        }
+        keys = Arrays.copyOf(keys, size);
+        containers = Arrays.copyOf(containers, size);
+    }
+
+    public static Bitmap and(Bitmap left, Bitmap right) {
+        Bitmap result = new Bitmap();
+        int i = 0, j = 0;
+        while (i < left.size && j < right.size) {
+            if (left.keys[i] < right.keys[j]) {
+                i++;
+            } else if (left.keys[i] > right.keys[j]) {
+                j++;
+            } else {
+                Container container = left.containers[i].and(right.containers[j]);
+                if (container.cardinality() > 0) {
+                    result.insert(result.size, left.keys[i], container);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    // the values whose bits are set, bit i of words[i >>> 6] standing for i
+    public static Bitmap fromWords(long[] words) {
+        Bitmap result = new Bitmap();
+        for (int from = 0; from < words.length; from += 1024) {
+            BitmapContainer container = new BitmapContainer();
+            int to = Math.min(words.length, from + 1024);
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                container.words[i - from] = words[i];
+                count += Long.bitCount(words[i]);
+            }
+            if (count > 0) {
+                container.cardinality = count;
+                result.insert(result.size, (char) (from >>> 10), count > Container.ARRAY_LIMIT ? container : container.toArray());
+            }
+        }
+        return result;
+    }
+
+    // number of values strictly below the given one
+    private int rank(int value) {
+        char key = (char) (value >>> 16);
+        int rank = 0;
+        for (int i = 0; i < size && keys[i] <= key; i++) {
+            rank += keys[i] < key ? containers[i].cardinality() : containers[i].rank(value & 0xFFFF);
+        }
+        return rank;
+    }
+
+    private void insert(int index, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(4, size * 2));
+            containers = Arrays.copyOf(containers, Math.max(4, size * 2));
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    // Iterates the values in [from, to) in ascending order; next() returns -1 when exhausted.
+    public final class Cursor {
+        private final int to;
+        private int index;
+        private int base;
+        private char[] values;
+        private int position;
+        private int end;
+        private long[] words;
+        private int wordIndex;
+        private long word;
+
+        private Cursor(int from, int to) {
+            this.to = to;
+            if (from >= to) {
+                index = size;
+                return;
+            }
+            index = Arrays.binarySearch(keys, 0, size, (char) (from >>> 16));
+            if (index < 0) {
+                index = -index - 1;
+                from = index < size ? keys[index] << 16 : from;
+            }
+            open(from);
+        }
+
+        public int next() {
+            while (index < size) {
+                int low = -1;
+                if (values != null) {
+                    if (position < end) {
+                        low = values[position++];
+                    }
+                } else {
+                    while (word == 0 && ++wordIndex < words.length) {
+                        word = words[wordIndex];
+                    }
+                    if (word != 0) {
+                        low = (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+                if (low >= 0) {
+                    int value = base | low;
+                    if (value >= to) {
+                        index = size;
+                        return -1;
+                    }
+                    return value;
+                }
+                index++;
+                if (index < size) {
+                    open(keys[index] << 16);
+                }
+            }
+            return -1;
+        }
+
+        private void open(int from) {
+            if (index >= size) {
+                return;
+            }
+            base = keys[index] << 16;
+            int low = from & 0xFFFF;
+            Container container = containers[index];
+            if (container instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) container;
+                values = array.values;
+                end = array.cardinality;
+                position = array.rank(low);
+                words = null;
+            } else {
+                values = null;
+                words = ((BitmapContainer) container).words;
+                wordIndex = low >>> 6;
+                word = words[wordIndex] & (-1L << low);
+            }
+        }
+    }
+}
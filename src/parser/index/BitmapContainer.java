@@ -0,0 +1,74 @@
+package parser.index;
+
+final class BitmapContainer extends Container {
+    final long[] words = new long[1024];
+    int cardinality;
+
+    @Override
+    Container add(char value) {
+        long bit = 1L << value;
+        int index = value >>> 6;
+        if ((words[index] & bit) == 0) {
+            words[index] |= bit;
+            cardinality++;
+        }
+        return this;
+    }
+
+    @Override
+    int cardinality() {
+        return cardinality;
+    }
+
+    @Override
+    int rank(int low) {
+        if (low > 0xFFFF) {
+            return cardinality;
+        }
+        int count = 0;
+        int index = low >>> 6;
+        for (int i = 0; i < index; i++) {
+            count += Long.bitCount(words[i]);
+        }
+        return count + Long.bitCount(words[index] & ((1L << low) - 1));
+    }
+
+    @Override
+    boolean contains(char value) {
+        return (words[value >>> 6] & (1L << value)) != 0;
+    }
+
+    @Override
+    Container and(Container other) {
+        if (other instanceof ArrayContainer) {
+            return other.and(this);
+        }
+        BitmapContainer bitmap = (BitmapContainer) other;
+        BitmapContainer result = new BitmapContainer();
+        int count = 0;
+        for (int i = 0; i < words.length; i++) {
+            result.words[i] = words[i] & bitmap.words[i];
+            count += Long.bitCount(result.words[i]);
+        }
+        result.cardinality = count;
+        return count > ARRAY_LIMIT ? result : result.toArray();
+    }
+
+    @Override
+    Container trim() {
+        return this;
+    }
+
+    ArrayContainer toArray() {
+        char[] values = new char[cardinality];
+        int count = 0;
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            while (word != 0) {
+                values[count++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return new ArrayContainer(values, count);
+    }
+}
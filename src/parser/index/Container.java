@@ -0,0 +1,18 @@
+package parser.index;
+
+abstract class Container {
+    static final int ARRAY_LIMIT = 4096;
+
+    abstract Container add(char value);
+
+    abstract int cardinality();
+
+    // number of values strictly below the given low bits
+    abstract int rank(int low);
+
+    abstract boolean contains(char value);
+
+    abstract Container and(Container other);
+
+    abstract Container trim();
+}
@@ -0,0 +1,123 @@
+package parser.index;
+
+// HyperLogLog distinct count sketch over 64-bit hashes with 2^precision one byte registers.
+// The standard error is about 1.04 / sqrt(2^precision). Sketches of the same precision merge
+// exactly, and a sketch can absorb one of a higher precision by folding its registers.
+public final class HyperLogLog {
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision out of range: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    // smallest precision whose standard error is at most the given relative error
+    public static int precisionFor(double relativeError) {
+        if (!(relativeError > 0)) {
+            throw new IllegalArgumentException("Relative error must be positive: " + relativeError);
+        }
+        double registers = Math.pow(1.04 / relativeError, 2);
+        int precision = 64 - Long.numberOfLeadingZeros((long) Math.ceil(registers) - 1);
+        return Math.max(MIN_PRECISION, Math.min(MAX_PRECISION, precision));
+    }
+
+    public int precision() {
+        return precision;
+    }
+
+    public void add(int value) {
+        addHash(hash(value));
+    }
+
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // the sentinel bit caps the rank when all remaining bits are zero
+        long rest = hash << precision | 1L << (precision - 1);
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (registers[index] < rank) {
+            registers[index] = rank;
+        }
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision < precision) {
+            throw new IllegalArgumentException("Cannot merge precision " + other.precision + " into " + precision);
+        }
+        int shift = other.precision - precision;
+        if (shift == 0) {
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] < other.registers[i]) {
+                    registers[i] = other.registers[i];
+                }
+            }
+            return;
+        }
+        // the low bits of the other index are the leading bits of the hash remainder here
+        for (int i = 0; i < other.registers.length; i++) {
+            byte value = other.registers[i];
+            if (value == 0) {
+                continue;
+            }
+            int extra = i & ((1 << shift) - 1);
+            byte rank = (byte) (extra != 0 ? Integer.numberOfLeadingZeros(extra) - (32 - shift) + 1 : shift + value);
+            int index = i >>> shift;
+            if (registers[index] < rank) {
+                registers[index] = rank;
+            }
+        }
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting is more accurate for small cardinalities
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    // byte size of the registers
+    public int size() {
+        return registers.length;
+    }
+
+    // murmur3 finalizer over the offset value (it maps 0 to 0), spreads dense ids over all 64 bits
+    public static long hash(int value) {
+        long hash = value + 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The vector loops against the scalar one, for row counts around the vector and word sizes and for
+// columns at unaligned offsets of a buffer. The tests run with the vector module, see pom.xml.
+class ColumnScanTest {
+    private static final int CODES = 5;
+
+    @Test
+    void select() {
+        assertTrue(ColumnScan.VECTORIZED);
+        Random random = new Random(4);
+        for (int rows : new int[]{0, 1, 7, 31, 63, 64, 65, 127, 128, 129, 1000, 4099}) {
+            byte[] column = new byte[rows];
+            for (int row = 0; row < rows; row++) {
+                column[row] = (byte) random.nextInt(CODES);
+            }
+            long[][] expected = words(rows);
+            for (int row = 0; row < rows; row++) {
+                expected[column[row]][row >>> 6] |= 1L << row;
+            }
+
+            long[][] words = words(rows);
+            VectorColumnScan.select(column, rows, words);
+            assertArrayEquals(expected, words, rows + " rows");
+
+            for (int offset : new int[]{0, 3, 64}) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(offset + rows + 5);
+                buffer.position(offset);
+                buffer.put(column);
+                buffer.put(new byte[]{1, 1, 1, 1, 1});
+                words = words(rows);
+                VectorColumnScan.select(buffer, offset, rows, words);
+                assertArrayEquals(expected, words, rows + " rows at " + offset);
+            }
+        }
+    }
+
+    private static long[][] words(int rows) {
+        return new long[CODES][(rows + 63) / 64];
+    }
+}
@@ -0,0 +1,106 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Logs loaded from .log.gz files against the same logs loaded plain: lines split between blocks,
+// a line longer than a block, a last line without a line break, and a truncated archive.
+class CompressedLogTest {
+    @TempDir
+    Path plainDir;
+    @TempDir
+    Path compressedDir;
+
+    @Test
+    void sameAsPlain() throws Exception {
+        LogFixture fixture = LogFixture.write(plainDir, 3, 20_000, 41);
+        gzipAll();
+        try (LogParser plain = new LogParser(plainDir, 2); LogParser compressed = new LogParser(compressedDir, 2)) {
+            assertEquals(fixture.rows.size(), compressed.getTimestamps(null, null).count());
+            assertSameAnswers(fixture, plain, compressed);
+        }
+    }
+
+    // the user of the middle line is longer than a block, so the inflater grows its block for it
+    @Test
+    void longLine() throws Exception {
+        LogFixture fixture = LogFixture.write(plainDir, 2, 3000, 42);
+        char[] user = new char[(1 << 20) + (1 << 19)];
+        Arrays.fill(user, 'u');
+        String line = "1.2.3.4\t" + new String(user) + "\t1.2.2020 0:0:0\tLOGIN\tOK";
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(43);
+        for (int i = 0; i < 6000; i++) {
+            text.append(i == 3000 ? line : LogFixture.line(random, new Date(LogFixture.date("1.2.2020 0:0:0").getTime() + i * 1000L))).append('\n');
+        }
+        Files.write(plainDir.resolve("long.log"), text.toString().getBytes(Charset.defaultCharset()));
+        for (String row : text.toString().split("\n")) {
+            fixture.rows.add(LogFixture.Row.parse(row));
+        }
+        gzipAll();
+        try (LogParser plain = new LogParser(plainDir, 2); LogParser compressed = new LogParser(compressedDir, 2)) {
+            assertTrue(compressed.getAllUsers().contains(new String(user)));
+            assertSameAnswers(fixture, plain, compressed);
+        }
+    }
+
+    // a truncated archive fails as a whole: none of its rows are loaded, the other files are
+    @Test
+    void truncated() throws Exception {
+        LogFixture fixture = LogFixture.write(plainDir, 2, 20_000, 44);
+        gzipAll();
+        Path broken = compressedDir.resolve("fixture-1.log.gz");
+        byte[] bytes = Files.readAllBytes(broken);
+        Files.write(broken, Arrays.copyOf(bytes, bytes.length / 2));
+        fixture.rows.subList(20_000, 40_000).clear();
+        try (LogParser compressed = new LogParser(compressedDir, 2)) {
+            assertEquals(fixture.rows.size(), compressed.getTimestamps(null, null).count());
+            assertEquals(fixture.select(row -> row.ip, row -> true, null, null), compressed.getUniqueIPs(null, null));
+            assertEquals(fixture.first(row -> true, null, null).getTime(), compressed.getTimestamps(null, null).min().getAsLong());
+        }
+    }
+
+    private void gzipAll() throws IOException {
+        try (var files = Files.list(plainDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressedDir.resolve(file.getFileName() + ".gz")))) {
+                    Files.copy(file, out);
+                }
+            }
+        }
+    }
+
+    private static void assertSameAnswers(LogFixture fixture, LogParser plain, LogParser compressed) throws ParseException {
+        List<Date> dates = fixture.dates();
+        Date after = dates.get(dates.size() / 3), before = dates.get(dates.size() * 2 / 3);
+        assertEquals(fixture.select(row -> row.ip, row -> true, null, null), compressed.getUniqueIPs(null, null));
+        assertEquals(plain.getUniqueIPs(after, before), compressed.getUniqueIPs(after, before));
+        assertEquals(plain.getAllUsers(), compressed.getAllUsers());
+        assertEquals(plain.getNumberOfAllEvents(after, before), compressed.getNumberOfAllEvents(after, before));
+        assertEquals(plain.getAllDates(null, null), compressed.getAllDates(null, null));
+        assertEquals(plain.getDatesWhenSomethingFailed(after, null), compressed.getDatesWhenSomethingFailed(after, null));
+        assertEquals(plain.getAllDoneTasksAndTheirNumber(null, before), compressed.getAllDoneTasksAndTheirNumber(null, before));
+        assertEquals(plain.getTimestamps(null, null).count(), compressed.getTimestamps(null, null).count());
+        for (String query : new String[]{"get ip for event = \"LOGIN\"", "get date for status = \"ERROR\"",
+                "get count user", "get user group by event", "get top 3 task"}) {
+            Set<Object> expected = plain.execute(query);
+            assertEquals(expected, compressed.execute(query), query);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// The decoder against the lenient SimpleDateFormat the parser used before, on the dates of
+// example.log and on odd ones: zone transitions, overflowing fields, years outside the month table
+// and text after the seconds.
+class DateDecoderTest {
+    private static final String[] ZONES = {"UTC", "Europe/Moscow", "Europe/Berlin", "America/New_York", "Australia/Lord_Howe", "Asia/Kolkata"};
+    private static final String[] DATES = {
+            // gaps and overlaps of daylight saving time
+            "29.3.2020 2:30:0", "25.10.2020 2:30:0", "25.10.2020 3:0:0", "8.3.2020 2:30:0", "1.11.2020 1:30:0",
+            "4.10.2020 2:15:0", "5.4.2020 1:45:0", "27.3.2011 2:30:0", "30.10.2010 2:30:0", "31.12.1969 23:59:59",
+            // lenient overflows
+            "31.2.2020 0:0:0", "0.0.2020 25:61:61", "32.13.2019 24:0:0", "29.2.2019 12:0:0", "1.1.2020 0:0:86400",
+            "0.1.2000 0:0:0", "100.100.2000 100:100:100", "01.01.2020 00:00:00", "000000001.1.2020 0:0:0",
+            // years outside the month table
+            "1.1.1899 0:0:0", "31.12.1899 23:59:59", "1.1.2100 0:0:0", "31.12.2099 23:59:59", "1.1.9999 0:0:0",
+            "4.10.1582 12:0:0", "15.10.1582 12:0:0", "1.1.1 0:0:0", "1.1.0 0:0:0", "13.12.2100 0:0:0",
+            // text after the seconds
+            "1.1.2020 0:0:0 x", "1.1.2020 0:0:0x", "1.1.2020 0:0:0\tLOGIN", "1.1.2020 0:0:0.5", "1.1.2020 0:0:0 0",
+    };
+    private static final String[] UNPARSEABLE = {"", "x", "1.1.2020", "1.1.2020 0:0", "1..2020 0:0:0", "1.1.2020 0:0:", "1/1/2020 0:0:0", "1.1.2020T0:0:0"};
+
+    @Test
+    void sameAsSimpleDateFormat() throws IOException, ParseException {
+        List<String> dates = new ArrayList<>(List.of(DATES));
+        for (String line : Files.readAllLines(Paths.get("src/parser/logs/example.log"), Charset.defaultCharset())) {
+            dates.add(line.split("\t")[2]);
+        }
+        for (String zone : ZONES) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            DateDecoder decoder = new DateDecoder(timeZone);
+            DateFormat format = new SimpleDateFormat("d.M.yyyy H:m:s");
+            format.setTimeZone(timeZone);
+            for (String date : dates) {
+                assertEquals(format.parse(date).getTime(), decoder.decode(date), date + " in " + zone);
+            }
+            // every day of the table with a time of day in its second half, including the days of transitions
+            for (long day = -25_567; day < 47_482; day += 3) {
+                String date = format.format(new Date(day * 86_400_000L + 13 * 3_600_000L + 17 * 60_000L + 23_000L));
+                assertEquals(format.parse(date).getTime(), decoder.decode(date), date + " in " + zone);
+            }
+        }
+    }
+
+    @Test
+    void unparseable() {
+        DateDecoder decoder = new DateDecoder(TimeZone.getTimeZone("UTC"));
+        DateFormat format = new SimpleDateFormat("d.M.yyyy H:m:s");
+        for (String date : UNPARSEABLE) {
+            assertThrows(ParseException.class, () -> format.parse(date), date);
+            assertThrows(ParseException.class, () -> decoder.decode(date), date);
+        }
+    }
+
+    // QL dates are decoded the same way, text after the seconds included
+    @Test
+    void queryDates() throws ParseException {
+        QueryCompiler compiler = new QueryCompiler(new DateDecoder(TimeZone.getDefault()));
+        QueryPlan plan = compiler.compile("get ip date between \"1.1.2020 0:0:0 x\" and \"31.2.2020 0:0:0\"");
+        assertEquals(LogFixture.date("1.1.2020 0:0:0"), plan.after);
+        assertEquals(LogFixture.date("2.3.2020 0:0:0"), plan.before);
+    }
+}
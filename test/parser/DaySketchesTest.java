@@ -0,0 +1,74 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+import parser.index.HyperLogLog;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Approximate distinct counts of row ranges from the day sketches, on days kept as ids and on days
+// kept as HyperLogLogs, against the distinct ids of the rows.
+class DaySketchesTest {
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    @Test
+    void addTo() {
+        Random random = new Random(13);
+        Segment segment = segment(random);
+        for (int i = 0; i < 200; i++) {
+            int from = random.nextInt(segment.size + 1);
+            int to = from + random.nextInt(segment.size - from + 1);
+            for (boolean ipColumn : new boolean[]{true, false}) {
+                HyperLogLog sketch = new HyperLogLog(DaySketches.PRECISION);
+                segment.sketches.addTo(sketch, ipColumn, from, to);
+                Set<Integer> ids = new HashSet<>();
+                for (int row = from; row < to; row++) {
+                    ids.add(ipColumn ? segment.ip(row) : segment.user(row));
+                }
+                // four standard errors
+                assertEquals(ids.size(), sketch.estimate(), Math.max(1, 4 * 1.04 / Math.sqrt(1 << DaySketches.PRECISION) * ids.size()));
+            }
+        }
+    }
+
+    // ranges of whole days, which are merged without scanning rows
+    @Test
+    void wholeDays() {
+        Segment segment = segment(new Random(17));
+        long start = segment.date(0) / DAY * DAY;
+        for (int days = 1; days < 8; days++) {
+            int from = segment.firstNotBefore(start + DAY), to = segment.firstNotBefore(start + (1 + days) * DAY);
+            HyperLogLog sketch = new HyperLogLog(DaySketches.PRECISION);
+            segment.sketches.addTo(sketch, false, from, to);
+            Set<Integer> users = new HashSet<>();
+            for (int row = from; row < to; row++) {
+                users.add(segment.user(row));
+            }
+            assertEquals(users.size(), sketch.estimate(), users.size() / 100.0);
+        }
+    }
+
+    // ten days, the odd ones with tens of thousands of distinct ips, all with a few hundred users
+    private static Segment segment(Random random) {
+        int size = 200_000;
+        long[] dates = new long[size];
+        int[] ips = new int[size];
+        int[] users = new int[size];
+        byte[] events = new byte[size];
+        int[] tasks = new int[size];
+        byte[] statuses = new byte[size];
+        long start = LogFixture.date("1.1.2020 0:0:0").getTime();
+        for (int row = 0; row < size; row++) {
+            dates[row] = start + row * (10 * DAY / size);
+            boolean busy = (dates[row] - start) / DAY % 2 == 1;
+            ips[row] = busy ? random.nextInt(1_000_000) : random.nextInt(500);
+            users[row] = random.nextInt(300);
+            tasks[row] = LogStore.NO_TASK;
+        }
+        return new Segment(Path.of("test.log"), dates, ips, users, events, tasks, statuses);
+    }
+}
@@ -0,0 +1,87 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Percentiles of known distributions: exact below 256, within the bucket precision above, and
+// values past 2^40 ns counted at the cap.
+class LatencyHistogramTest {
+    private static final long CAP = (1L << 40) - 1;
+
+    @Test
+    void empty() {
+        assertStats(new LatencyHistogram().stats(), 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    @Test
+    void exactBelow256() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 0; value < 256; value++) {
+            histogram.record(value);
+        }
+        assertStats(histogram.stats(), 256, 127, 127, 230, 253, 255, 255);
+    }
+
+    // the percentiles of 1000, 2000 .. 1000000 are the largest values of their buckets, less than
+    // 1% above the exact ones
+    @Test
+    void uniform() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1000; i >= 1; i--) {
+            histogram.record(i * 1000L);
+        }
+        LatencyStats stats = histogram.stats();
+        assertEquals(1000, stats.getCount());
+        assertEquals(500_500, stats.getMean());
+        assertClose(500_000, stats.getP50());
+        assertClose(900_000, stats.getP90());
+        assertClose(990_000, stats.getP99());
+        assertClose(999_000, stats.getP999());
+        assertEquals(1_000_000, stats.getMax());
+    }
+
+    // every value is in a bucket whose largest value is no less than it and less than 1% above,
+    // around the powers of two in particular
+    @Test
+    void bucketPrecision() {
+        Random random = new Random(5);
+        for (int bits = 8; bits < 40; bits++) {
+            long power = 1L << bits;
+            for (long value : new long[]{power - 1, power, power + 1, power + power / 256, power + random.nextLong(power)}) {
+                LatencyHistogram histogram = new LatencyHistogram();
+                histogram.record(value);
+                histogram.record(CAP);
+                long p50 = histogram.stats().getP50();
+                assertTrue(p50 >= value && p50 - value <= value / 128, value + " in a bucket up to " + p50);
+            }
+        }
+    }
+
+    @Test
+    void capped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1L << 40);
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(CAP);
+        histogram.record(-5);
+        assertStats(histogram.stats(), 4, 3 * CAP / 4, CAP, CAP, CAP, CAP, CAP);
+    }
+
+    private static void assertClose(long expected, long actual) {
+        assertTrue(actual >= expected && actual - expected <= expected / 100, actual + " for " + expected);
+    }
+
+    private static void assertStats(LatencyStats stats, long count, long mean, long p50, long p90, long p99, long p999, long max) {
+        assertEquals(count, stats.getCount(), "count");
+        assertEquals(mean, stats.getMean(), "mean");
+        assertEquals(p50, stats.getP50(), "p50");
+        assertEquals(p90, stats.getP90(), "p90");
+        assertEquals(p99, stats.getP99(), "p99");
+        assertEquals(p999, stats.getP999(), "p999");
+        assertEquals(max, stats.getMax(), "max");
+    }
+}
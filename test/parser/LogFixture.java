@@ -0,0 +1,168 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Generated logs in the format of example.log, and the rows as the original LogParser read them:
+// one LogEntity-like row per line, dates parsed with SimpleDateFormat. The queries of the tests
+// are answered by filtering all rows, the way the original methods did.
+class LogFixture {
+    static final String[] USERS = {"Amigo", "Vasya Pupkin", "Eduard Petrovich Morozko", "Ivan", "Maria Ivanova", "Guest"};
+    static final String[] IPS = {"127.0.0.1", "192.168.100.2", "146.34.15.5", "12.12.12.12", "120.120.120.122", "10.0.0.1", "10.0.0.2", "8.8.8.8"};
+    static final int TASKS = 5;
+
+    private static final DateFormat LOG_FORMAT = new SimpleDateFormat("d.M.yyyy H:m:s");
+    private static final DateFormat PADDED_FORMAT = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss");
+
+    final List<Row> rows = new ArrayList<>();
+
+    // Writes the given number of files of rows each to dir; every file covers its own span of
+    // dates, the spans overlap, and some rows of a file share a date. The last line of a file has
+    // no line break, as in example.log.
+    static LogFixture write(Path dir, int files, int rows, long seed) throws IOException {
+        Random random = new Random(seed);
+        LogFixture fixture = new LogFixture();
+        long start = date("01.01.2020 00:00:00").getTime();
+        for (int file = 0; file < files; file++) {
+            StringBuilder text = new StringBuilder();
+            long time = start + file * 20L * 24 * 3600 * 1000;
+            for (int i = 0; i < rows; i++) {
+                if (random.nextInt(8) != 0) {
+                    time += random.nextInt(4 * 3600) * 1000L;
+                }
+                String line = line(random, new Date(time));
+                text.append(line);
+                if (i < rows - 1) {
+                    text.append('\n');
+                }
+                fixture.rows.add(Row.parse(line));
+            }
+            Files.write(dir.resolve("fixture-" + file + ".log"), text.toString().getBytes(Charset.defaultCharset()));
+        }
+        return fixture;
+    }
+
+    // a line for the date, with a random user, ip, event and status
+    static String line(Random random, Date date) {
+        Event event = Event.values()[random.nextInt(Event.values().length)];
+        Status status = Status.values()[random.nextInt(10) < 7 ? 0 : 1 + random.nextInt(Status.values().length - 1)];
+        String task = event == Event.SOLVE_TASK || event == Event.DONE_TASK ? " " + (1 + random.nextInt(TASKS)) : "";
+        String formatted;
+        synchronized (LogFixture.class) {
+            formatted = (random.nextBoolean() ? LOG_FORMAT : PADDED_FORMAT).format(date);
+        }
+        return IPS[random.nextInt(IPS.length)] + "\t" + USERS[random.nextInt(USERS.length)] + "\t" + formatted
+                + "\t" + event + task + "\t" + status;
+    }
+
+    static Date date(String text) {
+        try {
+            synchronized (LogFixture.class) {
+                return LOG_FORMAT.parse(text);
+            }
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(text, e);
+        }
+    }
+
+    // the date as a QL date value
+    static String format(Date date) {
+        synchronized (LogFixture.class) {
+            return PADDED_FORMAT.format(date);
+        }
+    }
+
+    // the distinct dates of the rows, in order
+    List<Date> dates() {
+        List<Date> dates = new ArrayList<>(new HashSet<>(select(row -> row.date, row -> true, null, null)));
+        dates.sort(null);
+        return dates;
+    }
+
+    // the distinct values of the field over the rows matching the filter strictly between the dates
+    <T> Set<T> select(Function<Row, T> field, Predicate<Row> filter, Date after, Date before) {
+        Set<T> values = new HashSet<>();
+        for (Row row : rows) {
+            if (filter.test(row) && row.isBetween(after, before)) {
+                values.add(field.apply(row));
+            }
+        }
+        return values;
+    }
+
+    int count(Predicate<Row> filter, Date after, Date before) {
+        int count = 0;
+        for (Row row : rows) {
+            if (filter.test(row) && row.isBetween(after, before)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // the earliest date of the matching rows, or null
+    Date first(Predicate<Row> filter, Date after, Date before) {
+        Date first = null;
+        for (Date date : select(row -> row.date, filter, after, before)) {
+            if (first == null || date.before(first)) {
+                first = date;
+            }
+        }
+        return first;
+    }
+
+    Map<Integer, Integer> tasks(Event event, Date after, Date before) {
+        Map<Integer, Integer> tasks = new HashMap<>();
+        for (Row row : rows) {
+            if (row.event == event && row.isBetween(after, before)) {
+                tasks.merge(row.task, 1, Integer::sum);
+            }
+        }
+        return tasks;
+    }
+
+    static class Row {
+        final String ip;
+        final String user;
+        final Date date;
+        final Event event;
+        final int task;
+        final Status status;
+
+        private Row(String ip, String user, Date date, Event event, int task, Status status) {
+            this.ip = ip;
+            this.user = user;
+            this.date = date;
+            this.event = event;
+            this.task = task;
+            this.status = status;
+        }
+
+        static Row parse(String line) {
+            String[] params = line.split("\\t");
+            String[] eventAndTask = params[3].split(" ");
+            return new Row(params[0], params[1], date(params[2]), Event.valueOf(eventAndTask[0]),
+                    eventAndTask.length > 1 ? Integer.parseInt(eventAndTask[1]) : -1, Status.valueOf(params[4]));
+        }
+
+        // the bounds of the original isBetweenDates: after defaults to the epoch
+        boolean isBetween(Date after, Date before) {
+            return date.after(after == null ? new Date(0) : after) && date.before(before == null ? new Date(Long.MAX_VALUE) : before);
+        }
+    }
+}
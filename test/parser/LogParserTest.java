@@ -0,0 +1,392 @@
+package parser;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Every query method against the original per-row evaluation of the same fixture logs, over
+// ranges that cut through segments, start and end exactly at row dates, or are open.
+class LogParserTest {
+    private static final String[] UNKNOWN = {"Nobody", "1.2.3.4"};
+
+    @TempDir
+    static Path logDir;
+    private static LogFixture fixture;
+    private static LogParser parser;
+    private static final List<Date[]> ranges = new ArrayList<>();
+    private static final List<Date> dates = new ArrayList<>();
+
+    @BeforeAll
+    static void load() throws Exception {
+        fixture = LogFixture.write(logDir, 4, 500, 1);
+        parser = new LogParser(logDir, 3);
+        List<Date> all = fixture.dates();
+        Date first = all.get(0), last = all.get(all.size() - 1);
+        Date middle = all.get(all.size() / 2), quarter = all.get(all.size() / 4);
+        ranges.add(new Date[]{null, null});
+        ranges.add(new Date[]{null, middle});
+        ranges.add(new Date[]{middle, null});
+        ranges.add(new Date[]{quarter, middle});
+        ranges.add(new Date[]{first, last});
+        ranges.add(new Date[]{new Date(quarter.getTime() + 1), new Date(middle.getTime() - 1)});
+        ranges.add(new Date[]{middle, middle});
+        ranges.add(new Date[]{last, first});
+        for (int i = 0; i < all.size(); i += all.size() / 16) {
+            dates.add(all.get(i));
+        }
+        dates.add(new Date(first.getTime() - 1));
+    }
+
+    @AfterAll
+    static void close() throws Exception {
+        parser.close();
+    }
+
+    private static List<String> users() {
+        List<String> users = new ArrayList<>(Arrays.asList(LogFixture.USERS));
+        users.add(UNKNOWN[0]);
+        return users;
+    }
+
+    private static List<String> ips() {
+        List<String> ips = new ArrayList<>(Arrays.asList(LogFixture.IPS));
+        ips.add(UNKNOWN[1]);
+        return ips;
+    }
+
+    @Test
+    void ipQueries() {
+        for (Date[] range : ranges) {
+            Date after = range[0], before = range[1];
+            assertEquals(fixture.select(row -> row.ip, row -> true, after, before), parser.getUniqueIPs(after, before));
+            assertEquals(fixture.select(row -> row.ip, row -> true, after, before).size(), parser.getNumberOfUniqueIPs(after, before));
+            for (String user : users()) {
+                assertEquals(fixture.select(row -> row.ip, row -> row.user.equals(user), after, before), parser.getIPsForUser(user, after, before));
+            }
+            for (Event event : Event.values()) {
+                assertEquals(fixture.select(row -> row.ip, row -> row.event == event, after, before), parser.getIPsForEvent(event, after, before));
+            }
+            for (Status status : Status.values()) {
+                assertEquals(fixture.select(row -> row.ip, row -> row.status == status, after, before), parser.getIPsForStatus(status, after, before));
+            }
+            for (Date date : dates) {
+                assertEquals(fixture.select(row -> row.ip, row -> row.date.equals(date), after, before), parser.getIPsForDate(date, after, before));
+            }
+        }
+    }
+
+    @Test
+    void userQueries() {
+        assertEquals(fixture.select(row -> row.user, row -> true, null, null), parser.getAllUsers());
+        for (Date[] range : ranges) {
+            Date after = range[0], before = range[1];
+            assertEquals(fixture.select(row -> row.user, row -> true, after, before).size(), parser.getNumberOfUsers(after, before));
+            for (String user : users()) {
+                assertEquals(fixture.select(row -> row.event, row -> row.user.equals(user), after, before).size(), parser.getNumberOfUserEvents(user, after, before));
+            }
+            for (String ip : ips()) {
+                assertEquals(fixture.select(row -> row.user, row -> row.ip.equals(ip), after, before), parser.getUsersForIP(ip, after, before));
+            }
+            assertEquals(usersFor(Event.LOGIN, after, before), parser.getLoggedUsers(after, before));
+            assertEquals(usersFor(Event.DOWNLOAD_PLUGIN, after, before), parser.getDownloadedPluginUsers(after, before));
+            assertEquals(usersFor(Event.WRITE_MESSAGE, after, before), parser.getWroteMessageUsers(after, before));
+            assertEquals(usersFor(Event.SOLVE_TASK, after, before), parser.getSolvedTaskUsers(after, before));
+            assertEquals(usersFor(Event.DONE_TASK, after, before), parser.getDoneTaskUsers(after, before));
+            for (int task = 0; task <= LogFixture.TASKS + 1; task++) {
+                int t = task;
+                assertEquals(fixture.select(row -> row.user, row -> row.event == Event.SOLVE_TASK && row.task == t, after, before),
+                        parser.getSolvedTaskUsers(after, before, task));
+                assertEquals(fixture.select(row -> row.user, row -> row.event == Event.DONE_TASK && row.task == t, after, before),
+                        parser.getDoneTaskUsers(after, before, task));
+            }
+            for (Status status : Status.values()) {
+                assertEquals(fixture.select(row -> row.user, row -> row.status == status, after, before), parser.getUsersForStatus(status, after, before));
+            }
+            for (Date date : dates) {
+                assertEquals(fixture.select(row -> row.user, row -> row.date.equals(date), after, before), parser.getUsersForDate(date, after, before));
+            }
+        }
+    }
+
+    private static Set<String> usersFor(Event event, Date after, Date before) {
+        return fixture.select(row -> row.user, row -> row.event == event, after, before);
+    }
+
+    @Test
+    void dateQueries() {
+        for (Date[] range : ranges) {
+            Date after = range[0], before = range[1];
+            assertEquals(fixture.select(row -> row.date, row -> true, after, before), parser.getAllDates(after, before));
+            assertEquals(fixture.select(row -> row.date, row -> row.status == Status.FAILED, after, before), parser.getDatesWhenSomethingFailed(after, before));
+            assertEquals(fixture.select(row -> row.date, row -> row.status == Status.ERROR, after, before), parser.getDatesWhenErrorHappened(after, before));
+            for (String ip : ips()) {
+                assertEquals(fixture.select(row -> row.date, row -> row.ip.equals(ip), after, before), parser.getDatesForIPs(ip, after, before));
+            }
+            for (Status status : Status.values()) {
+                assertEquals(fixture.select(row -> row.date, row -> row.status == status, after, before), parser.getDatesForStatus(status, after, before));
+            }
+            for (Event event : Event.values()) {
+                assertEquals(fixture.select(row -> row.date, row -> row.event == event, after, before), parser.getDatesForUserAndEvent(null, event, after, before));
+            }
+            for (String user : users()) {
+                assertEquals(fixture.select(row -> row.date, row -> row.user.equals(user), after, before), parser.getDatesForUserAndEvent(user, null, after, before));
+                for (Event event : Event.values()) {
+                    assertEquals(fixture.select(row -> row.date, row -> row.user.equals(user) && row.event == event, after, before),
+                            parser.getDatesForUserAndEvent(user, event, after, before));
+                }
+                assertEquals(fixture.select(row -> row.date, row -> row.user.equals(user) && row.event == Event.WRITE_MESSAGE, after, before),
+                        parser.getDatesWhenUserWroteMessage(user, after, before));
+                assertEquals(fixture.select(row -> row.date, row -> row.user.equals(user) && row.event == Event.DOWNLOAD_PLUGIN, after, before),
+                        parser.getDatesWhenUserDownloadedPlugin(user, after, before));
+                assertEquals(fixture.first(row -> row.user.equals(user) && row.event == Event.LOGIN, after, before),
+                        parser.getDateWhenUserLoggedFirstTime(user, after, before));
+                for (int task = 0; task <= LogFixture.TASKS + 1; task++) {
+                    int t = task;
+                    assertEquals(fixture.first(row -> row.user.equals(user) && row.event == Event.SOLVE_TASK && row.task == t, after, before),
+                            parser.getDateWhenUserSolvedTask(user, task, after, before));
+                    assertEquals(fixture.first(row -> row.user.equals(user) && row.event == Event.DONE_TASK && row.task == t, after, before),
+                            parser.getDateWhenUserDoneTask(user, task, after, before));
+                }
+            }
+        }
+    }
+
+    @Test
+    void eventQueries() {
+        for (Date[] range : ranges) {
+            Date after = range[0], before = range[1];
+            assertEquals(fixture.select(row -> row.event, row -> true, after, before), parser.getAllEvents(after, before));
+            assertEquals(fixture.select(row -> row.event, row -> true, after, before).size(), parser.getNumberOfAllEvents(after, before));
+            assertEquals(fixture.select(row -> row.event, row -> row.status == Status.FAILED, after, before), parser.getFailedEvents(after, before));
+            assertEquals(fixture.select(row -> row.event, row -> row.status == Status.ERROR, after, before), parser.getErrorEvents(after, before));
+            for (String ip : ips()) {
+                assertEquals(fixture.select(row -> row.event, row -> row.ip.equals(ip), after, before), parser.getEventsForIP(ip, after, before));
+            }
+            for (String user : users()) {
+                assertEquals(fixture.select(row -> row.event, row -> row.user.equals(user), after, before), parser.getEventsForUser(user, after, before));
+            }
+            for (Status status : Status.values()) {
+                assertEquals(fixture.select(row -> row.event, row -> row.status == status, after, before), parser.getEventsForStatus(status, after, before));
+            }
+            for (Date date : dates) {
+                assertEquals(fixture.select(row -> row.event, row -> row.date.equals(date), after, before), parser.getEventsForDate(date, after, before));
+            }
+            for (int task = 0; task <= LogFixture.TASKS + 1; task++) {
+                int t = task;
+                assertEquals(fixture.count(row -> row.event == Event.SOLVE_TASK && row.task == t, after, before), parser.getNumberOfAttemptToSolveTask(task, after, before));
+                assertEquals(fixture.count(row -> row.event == Event.DONE_TASK && row.task == t, after, before), parser.getNumberOfSuccessfulAttemptToSolveTask(task, after, before));
+            }
+            assertEquals(fixture.tasks(Event.SOLVE_TASK, after, before), parser.getAllSolvedTasksAndTheirNumber(after, before));
+            assertEquals(fixture.tasks(Event.DONE_TASK, after, before), parser.getAllDoneTasksAndTheirNumber(after, before));
+        }
+    }
+
+    @Test
+    void statusQueries() {
+        for (Date[] range : ranges) {
+            Date after = range[0], before = range[1];
+            assertEquals(fixture.select(row -> row.status, row -> true, after, before), parser.getAllStatuses(after, before));
+            for (String ip : ips()) {
+                assertEquals(fixture.select(row -> row.status, row -> row.ip.equals(ip), after, before), parser.getStatusesForIp(ip, after, before));
+            }
+            for (String user : users()) {
+                assertEquals(fixture.select(row -> row.status, row -> row.user.equals(user), after, before), parser.getStatusesForUser(user, after, before));
+            }
+            for (Event event : Event.values()) {
+                assertEquals(fixture.select(row -> row.status, row -> row.event == event, after, before), parser.getStatusesForEvent(event, after, before));
+            }
+            for (Date date : dates) {
+                assertEquals(fixture.select(row -> row.status, row -> row.date.equals(date), after, before), parser.getStatusesForDate(date, after, before));
+            }
+        }
+    }
+
+    // the queries of Solution, and each field for each filter as the original execute routed them
+    @Test
+    void execute() throws ParseException {
+        String range = " and date between \"5.1.2020 0:00:00\" and \"20.2.2020 12:30:00\"";
+        Date after = LogFixture.date("5.1.2020 0:00:00"), before = LogFixture.date("20.2.2020 12:30:00");
+        assertEquals(new HashSet<Object>(fixture.select(row -> row.ip, row -> true, null, null)), parser.execute("get ip"));
+        assertEquals(new HashSet<Object>(fixture.select(row -> row.user, row -> true, null, null)), parser.execute("get user"));
+        assertEquals(new HashSet<Object>(fixture.select(row -> row.date, row -> true, null, null)), parser.execute("get date"));
+        for (String user : users()) {
+            assertEquals(new HashSet<Object>(fixture.select(row -> row.ip, row -> row.user.equals(user), after, before)),
+                    parser.execute("get ip for user = \"" + user + "\"" + range + "."));
+            assertEquals(new HashSet<Object>(fixture.select(row -> row.status, row -> row.user.equals(user), after, before)),
+                    parser.execute("get status for user = \"" + user + "\"" + range));
+        }
+        for (String ip : ips()) {
+            assertEquals(new HashSet<Object>(fixture.select(row -> row.event, row -> row.ip.equals(ip), after, before)),
+                    parser.execute("get event for ip = \"" + ip + "\"" + range));
+        }
+        for (Event event : Event.values()) {
+            assertEquals(new HashSet<Object>(fixture.select(row -> row.user, row -> row.event == event, after, before)),
+                    parser.execute("get user for event = \"" + event + "\"" + range));
+            assertEquals(new HashSet<Object>(fixture.select(row -> row.date, row -> row.event == event, null, null)),
+                    parser.execute("get date for event = \"" + event + "\""));
+        }
+        for (Status status : Status.values()) {
+            assertEquals(new HashSet<Object>(fixture.select(row -> row.event, row -> row.status == status, after, before)),
+                    parser.execute("get event for status = \"" + status + "\"" + range));
+        }
+    }
+
+    // streamed and paged values are those of execute, each once
+    @Test
+    void executeStream() throws ParseException {
+        List<String> queries = new ArrayList<>(Arrays.asList("get ip", "get user", "get date", "get event", "get status",
+                "get date for status = \"FAILED\"", "get user for event = \"SOLVE_TASK\" and date between \"5.1.2020 0:00:00\" and \"20.2.2020 12:30:00\"",
+                "get ip for user = \"Nobody\"", "get count user"));
+        for (String query : queries) {
+            Set<Object> expected = parser.execute(query);
+            List<Object> streamed = parser.executeStream(query).collect(Collectors.toList());
+            assertEquals(expected.size(), streamed.size(), query);
+            assertEquals(expected, new HashSet<>(streamed), query);
+            List<Object> paged = new ArrayList<>();
+            for (long offset = 0; offset <= streamed.size(); offset += 7) {
+                paged.addAll(parser.execute(query, offset, 7));
+            }
+            assertEquals(streamed, paged, query);
+            assertEquals(streamed.isEmpty(), parser.executeStream(query).findAny().isEmpty(), query);
+        }
+    }
+
+    @Test
+    void getTimestamps() {
+        for (Date[] range : ranges) {
+            Date after = range[0], before = range[1];
+            List<Long> expected = new ArrayList<>();
+            for (LogFixture.Row row : fixture.rows) {
+                if (row.isBetween(after, before)) {
+                    expected.add(row.date.getTime());
+                }
+            }
+            expected.sort(null);
+            List<Long> timestamps = parser.getTimestamps(after, before).boxed().sorted().collect(Collectors.toList());
+            assertEquals(expected, timestamps);
+            assertEquals(expected.stream().mapToLong(Long::longValue).sum(), parser.getTimestamps(after, before).parallel().sum());
+        }
+    }
+
+    // the fixture has a few distinct ips and users a day, which the estimates count within one
+    @Test
+    void approximateCounts() throws ParseException {
+        for (Date[] range : ranges) {
+            Date after = range[0], before = range[1];
+            int ips = fixture.select(row -> row.ip, row -> true, after, before).size();
+            int users = fixture.select(row -> row.user, row -> true, after, before).size();
+            assertEquals(ips, parser.getApproxNumberOfUniqueIPs(after, before), 1);
+            assertEquals(ips, parser.getApproxNumberOfUniqueIPs(after, before, 0.1), 1);
+            assertEquals(users, parser.getApproxNumberOfUsers(after, before), 1);
+            assertEquals(users, parser.getApproxNumberOfUsers(after, before, 0.1), 1);
+        }
+        assertEquals(Set.of(parser.getApproxNumberOfUniqueIPs(null, null)), parser.execute("get approx count ip"));
+        assertEquals(Set.of(parser.getApproxNumberOfUsers(LogFixture.date("5.1.2020 0:0:0"), LogFixture.date("20.2.2020 12:30:0"))),
+                parser.execute("get approx count user date between \"5.1.2020 0:0:0\" and \"20.2.2020 12:30:0\""));
+    }
+
+    // a batch answers every query as execute does on its own
+    @Test
+    void executeBatch() throws ParseException {
+        List<String> queries = new ArrayList<>();
+        String range = " date between \"5.1.2020 0:00:00\" and \"20.2.2020 12:30:00\"";
+        for (String field : new String[]{"ip", "user", "date", "event", "status"}) {
+            queries.add("get " + field);
+            queries.add("get " + field + range);
+            for (String filter : new String[]{"ip = \"127.0.0.1\"", "user = \"Amigo\"", "user = \"Nobody\"", "event = \"SOLVE_TASK\"",
+                    "status = \"ERROR\"", "date = \"" + LogFixture.format(dates.get(3)) + "\""}) {
+                if (!filter.startsWith(field + " ")) {
+                    queries.add("get " + field + " for " + filter);
+                    queries.add("get " + field + " for " + filter + " and" + range);
+                }
+            }
+        }
+        queries.add("get count user for event = \"LOGIN\"");
+        queries.add("get approx count ip");
+        List<Set<Object>> expected = new ArrayList<>();
+        for (String query : queries) {
+            expected.add(parser.execute(query));
+        }
+        List<Set<Object>> results = parser.execute(queries);
+        assertEquals(expected, results);
+        for (Set<Object> result : results) {
+            assertThrows(UnsupportedOperationException.class, () -> result.add("1.2.3.4"));
+        }
+    }
+
+    // count, group by and top against grouping and ranking the rows, in the order of their results
+    @Test
+    void aggregates() throws ParseException {
+        String range = " date between \"5.1.2020 0:00:00\" and \"20.2.2020 12:30:00\"";
+        Date after = LogFixture.date("5.1.2020 0:00:00"), before = LogFixture.date("20.2.2020 12:30:00");
+        for (Event event : Event.values()) {
+            assertEquals(Set.of(fixture.select(row -> row.user, row -> row.event == event, null, null).size()),
+                    parser.execute("get count user for event = \"" + event + "\""));
+            assertEquals(Set.of(fixture.select(row -> row.date, row -> row.event == event, after, before).size()),
+                    parser.execute("get count date for event = \"" + event + "\" and" + range));
+        }
+        assertEquals(groups(row -> row.event, row -> row.user, row -> true, null, null), new ArrayList<>(parser.execute("get user group by event")));
+        assertEquals(groups(row -> row.status, row -> row.date, row -> true, after, before),
+                new ArrayList<>(parser.execute("get date group by status" + range)));
+        assertEquals(groups(row -> row.user, row -> row.task, row -> row.task >= 0, null, null), new ArrayList<>(parser.execute("get task group by user")));
+        assertEquals(groups(row -> row.ip, row -> row.event, row -> row.user.equals("Amigo"), after, before),
+                new ArrayList<>(parser.execute("get event group by ip for user = \"Amigo\"" + range)));
+        assertEquals(top(row -> row.user, row -> row.event == Event.SOLVE_TASK, null, null, 3),
+                new ArrayList<>(parser.execute("get top 3 user by event = \"SOLVE_TASK\"")));
+        assertEquals(top(row -> row.task, row -> row.task >= 0, after, before, 2), new ArrayList<>(parser.execute("get top 2 task" + range)));
+        assertEquals(top(row -> row.ip, row -> row.status == Status.OK, null, null, 100),
+                new ArrayList<>(parser.execute("get top 100 ip for status = \"OK\"")));
+    }
+
+    // group=distinct values entries, by group
+    private static List<Object> groups(Function<LogFixture.Row, Object> group, Function<LogFixture.Row, Object> select,
+                                       Predicate<LogFixture.Row> filter, Date after, Date before) {
+        Map<Object, Set<Object>> groups = new TreeMap<>();
+        for (LogFixture.Row row : fixture.rows) {
+            if (filter.test(row) && row.isBetween(after, before)) {
+                groups.computeIfAbsent(group.apply(row), key -> new HashSet<>()).add(select.apply(row));
+            }
+        }
+        List<Object> entries = new ArrayList<>();
+        groups.forEach((key, values) -> entries.add(Map.entry(key, values.size())));
+        return entries;
+    }
+
+    // value=rows entries of the limit values with the most rows, ties by value
+    @SuppressWarnings("unchecked")
+    private static List<Object> top(Function<LogFixture.Row, Object> select, Predicate<LogFixture.Row> filter, Date after, Date before, int limit) {
+        Map<Object, Integer> rows = new HashMap<>();
+        for (LogFixture.Row row : fixture.rows) {
+            if (filter.test(row) && row.isBetween(after, before)) {
+                rows.merge(select.apply(row), 1, Integer::sum);
+            }
+        }
+        List<Map.Entry<Object, Integer>> entries = new ArrayList<>(rows.entrySet());
+        entries.sort((left, right) -> !left.getValue().equals(right.getValue()) ? right.getValue() - left.getValue()
+                : ((Comparable<Object>) left.getKey()).compareTo(right.getKey()));
+        List<Object> top = new ArrayList<>();
+        for (Map.Entry<Object, Integer> entry : entries.subList(0, Math.min(limit, entries.size()))) {
+            top.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+        return top;
+    }
+}
@@ -0,0 +1,197 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// Lines appended while a parser follows its directory, read by catching up synchronously instead
+// of on the thread of follow.
+class LogTailerTest {
+    private static final String LOGIN = "127.0.0.1\tAmigo\t30.08.2012 16:08:13\tLOGIN\tOK";
+    private static final String SOLVE = "192.168.100.2\tVasya Pupkin\t30.01.2014 12:56:22\tSOLVE_TASK 18\tERROR";
+    private static final String SOLVE_AGAIN = "12.12.12.12\tAmigo\t21.10.2021 19:45:25\tSOLVE_TASK 18\tOK";
+
+    @TempDir
+    Path logDir;
+
+    private void write(String file, String text, StandardOpenOption... options) throws IOException {
+        Files.write(logDir.resolve(file), text.getBytes(Charset.defaultCharset()), options);
+    }
+
+    private void append(String file, String text) throws IOException {
+        write(file, text, StandardOpenOption.APPEND);
+    }
+
+    @Test
+    void appendedLines() throws IOException {
+        write("a.log", LOGIN + "\n");
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            LogTailer tailer = parser.newTailer();
+            append("a.log", SOLVE + "\n");
+            write("b.log", SOLVE_AGAIN + "\n");
+            tailer.catchUp();
+            assertEquals(2, parser.getNumberOfAttemptToSolveTask(18, null, null));
+            assertEquals(Set.of("Amigo", "Vasya Pupkin"), parser.getAllUsers());
+        }
+    }
+
+    // a line still being written when the parser loads is read as a whole once it is complete
+    @Test
+    void lineCompletedAfterLoad() throws IOException {
+        write("a.log", LOGIN + "\n" + SOLVE.substring(0, 30));
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            LogTailer tailer = parser.newTailer();
+            assertEquals(0, parser.getNumberOfAttemptToSolveTask(18, null, null));
+            append("a.log", SOLVE.substring(30));
+            tailer.catchUp();
+            assertEquals(0, parser.getNumberOfAttemptToSolveTask(18, null, null));
+            append("a.log", "\n");
+            tailer.catchUp();
+            assertEquals(1, parser.getNumberOfAttemptToSolveTask(18, null, null));
+            assertEquals(Set.of("127.0.0.1", "192.168.100.2"), parser.getUniqueIPs(null, null));
+        }
+    }
+
+    // a last line without a line break counts at load, as in example.log, and only once after
+    // lines are appended to it
+    @Test
+    void lastLineWithoutLineBreak() throws IOException {
+        write("a.log", LOGIN + "\n" + SOLVE);
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            LogTailer tailer = parser.newTailer();
+            assertEquals(1, parser.getNumberOfAttemptToSolveTask(18, null, null));
+            tailer.catchUp();
+            assertEquals(1, parser.getNumberOfAttemptToSolveTask(18, null, null));
+            append("a.log", "\n" + SOLVE_AGAIN + "\n");
+            tailer.catchUp();
+            assertEquals(2, parser.getNumberOfAttemptToSolveTask(18, null, null));
+            assertEquals(3, parser.getAllDates(null, null).size());
+        }
+    }
+
+    // the same after a restart that takes the file from the snapshot
+    @Test
+    void lastLineWithoutLineBreakAfterRestart() throws IOException {
+        write("a.log", LOGIN + "\n" + SOLVE);
+        new LogParser(logDir, 2).close();
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            LogTailer tailer = parser.newTailer();
+            assertEquals(1, parser.getNumberOfAttemptToSolveTask(18, null, null));
+            append("a.log", "\n" + SOLVE_AGAIN + "\n");
+            tailer.catchUp();
+            assertEquals(2, parser.getNumberOfAttemptToSolveTask(18, null, null));
+            assertEquals(3, parser.getAllDates(null, null).size());
+        }
+    }
+
+    // logrotate with compress: the log is renamed, a new log is created, and the renamed log is
+    // compressed and removed. Polls see every state in between.
+    @Test
+    void renameAndCompress() throws IOException {
+        write("a.log", lines(1, 20));
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            LogTailer tailer = parser.newTailer();
+            tailer.catchUp();
+            append("a.log", lines(2, 5));
+            tailer.catchUp();
+            Files.move(logDir.resolve("a.log"), logDir.resolve("a-2020.log"));
+            tailer.catchUp();
+            append("a-2020.log", lines(3, 3));
+            write("a.log", lines(4, 7));
+            tailer.catchUp();
+            compress("a-2020.log");
+            tailer.catchUp();
+            Files.delete(logDir.resolve("a-2020.log"));
+            tailer.catchUp();
+            append("a.log", lines(5, 4));
+            tailer.catchUp();
+            assertSameAsRestart(parser);
+        }
+    }
+
+    // logrotate with copytruncate: the log is copied and truncated in place, then written again
+    @Test
+    void copyAndTruncate() throws IOException {
+        write("a.log", lines(1, 20));
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            LogTailer tailer = parser.newTailer();
+            tailer.catchUp();
+            Files.copy(logDir.resolve("a.log"), logDir.resolve("a-2020.log"));
+            write("a.log", "", StandardOpenOption.TRUNCATE_EXISTING);
+            tailer.catchUp();
+            append("a.log", lines(2, 6));
+            tailer.catchUp();
+            assertSameAsRestart(parser);
+        }
+    }
+
+    // numbered rotation: every rotated log moves one name up, the oldest is removed
+    @Test
+    void shiftRotatedLogs() throws IOException {
+        write("a.log", lines(1, 10));
+        write("a.1.log", lines(2, 10));
+        write("a.2.log", lines(3, 10));
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            LogTailer tailer = parser.newTailer();
+            tailer.catchUp();
+            Files.delete(logDir.resolve("a.2.log"));
+            Files.move(logDir.resolve("a.1.log"), logDir.resolve("a.2.log"));
+            Files.move(logDir.resolve("a.log"), logDir.resolve("a.1.log"));
+            write("a.log", lines(4, 3));
+            tailer.catchUp();
+            assertSameAsRestart(parser);
+        }
+    }
+
+    private void compress(String file) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(logDir.resolve(file + ".gz")))) {
+            Files.copy(logDir.resolve(file), out);
+        }
+    }
+
+    // the live results equal those of a parser restarted from the snapshot, and of one that
+    // parses the logs again
+    private void assertSameAsRestart(LogParser live) throws IOException {
+        Object expected = results(live);
+        live.close();
+        try (LogParser restarted = new LogParser(logDir, 2)) {
+            assertEquals(expected, results(restarted));
+        }
+        Files.delete(logDir.resolve(SnapshotFile.NAME));
+        try (LogParser reparsed = new LogParser(logDir, 2)) {
+            assertEquals(expected, results(reparsed));
+        }
+    }
+
+    private static List<Object> results(LogParser parser) {
+        assertFalse(parser.getAllDates(null, null).isEmpty());
+        return List.of(parser.getTimestamps(null, null).count(), parser.getAllSolvedTasksAndTheirNumber(null, null),
+                parser.getAllDoneTasksAndTheirNumber(null, null), parser.getAllDates(null, null), parser.getUniqueIPs(null, null),
+                parser.getAllUsers());
+    }
+
+    // lines of LogFixture a minute apart, on a day of their own for every seed
+    private static String lines(int seed, int count) {
+        Random random = new Random(seed);
+        long start = LogFixture.date("1.1.2020 0:0:0").getTime() + seed * 86_400_000L;
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(LogFixture.line(random, new Date(start + i * 60_000L))).append('\n');
+        }
+        return text.toString();
+    }
+}
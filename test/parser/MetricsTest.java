@@ -0,0 +1,115 @@
+package parser;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// With -Dparser.metrics=true: ingest counters per file and parse errors of a log with a bad line,
+// rows scanned and matched by queries, latencies per method and query shape, and the MBeans.
+class MetricsTest {
+    private static final String BAD_LINE = "not a log line";
+
+    @TempDir
+    Path logDir;
+    private LogFixture fixture;
+
+    @BeforeEach
+    void metrics() throws Exception {
+        fixture = LogFixture.write(logDir, 2, 500, 51);
+        Path file = logDir.resolve("fixture-1.log");
+        Files.write(file, (BAD_LINE + "\n" + Files.readString(file, Charset.defaultCharset())).getBytes(Charset.defaultCharset()));
+        System.setProperty("parser.metrics", "true");
+    }
+
+    @AfterEach
+    void noMetrics() {
+        System.clearProperty("parser.metrics");
+    }
+
+    @Test
+    void ingest() throws Exception {
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            ParserMetrics metrics = parser.getMetrics();
+            assertEquals(1, metrics.getParseErrors());
+            Map<String, IngestStats> ingest = metrics.getIngest();
+            assertEquals(2, ingest.size());
+            for (int file = 0; file < 2; file++) {
+                Path path = logDir.resolve("fixture-" + file + ".log");
+                IngestStats stats = ingest.get(path.toString());
+                assertEquals(Files.size(path), stats.getBytes(), path.toString());
+                assertEquals(500 + file, stats.getLines(), path.toString());
+                assertEquals(file, stats.getParseErrors(), path.toString());
+                assertTrue(stats.getNanos() > 0);
+            }
+            assertEquals(fixture.rows.size(), parser.getTimestamps(null, null).count());
+            assertEquals(1, metrics.getMethodLatencies().get("load").getCount());
+        }
+    }
+
+    @Test
+    void queries() throws Exception {
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            ParserMetrics before = parser.getMetrics();
+            parser.getAllDates(null, null);
+            ParserMetrics after = parser.getMetrics();
+            assertEquals(fixture.rows.size(), after.getRowsScanned() - before.getRowsScanned());
+            assertEquals(fixture.rows.size(), after.getRowsMatched() - before.getRowsMatched());
+
+            before = after;
+            // segments without a failed row, such as that of a last line, are not scanned
+            parser.getDatesWhenSomethingFailed(null, null);
+            after = parser.getMetrics();
+            long scanned = after.getRowsScanned() - before.getRowsScanned();
+            long matched = after.getRowsMatched() - before.getRowsMatched();
+            assertEquals(fixture.count(row -> row.status == Status.FAILED, null, null), matched);
+            assertTrue(scanned > matched && scanned <= fixture.rows.size(), scanned + " scanned");
+
+            // a cached result is timed but scans nothing
+            before = after;
+            parser.getDatesWhenSomethingFailed(null, null);
+            after = parser.getMetrics();
+            assertEquals(before.getRowsScanned(), after.getRowsScanned());
+            assertEquals(2, after.getMethodLatencies().get("getDatesForStatus").getCount());
+
+            parser.execute("get ip for user = \"Amigo\"");
+            parser.execute("get ip for user = \"Ivan\"");
+            parser.execute("get count user date between \"1.1.2020 0:0:0\" and \"1.2.2020 0:0:0\"");
+            Map<String, LatencyStats> queries = parser.getMetrics().getQueryLatencies();
+            assertEquals(2, queries.get("get ip for user").getCount());
+            assertEquals(1, queries.get("get count user date between").getCount());
+        }
+    }
+
+    // every parser registers its own MBean, parsers of the same directory included, until closed
+    @Test
+    void mbeans() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("parser:type=LogParser,name=" + ObjectName.quote(logDir.toString()) + ",*");
+        try (LogParser first = new LogParser(logDir, 2); LogParser second = new LogParser(logDir, 2)) {
+            Set<ObjectName> names = server.queryNames(pattern, null);
+            assertEquals(2, names.size());
+            // the second parser reads the snapshot the first one saved, so only the first parsed the bad line
+            long parseErrors = 0;
+            for (ObjectName name : names) {
+                CompositeData metrics = (CompositeData) server.getAttribute(name, "Metrics");
+                parseErrors += (Long) metrics.get("parseErrors");
+            }
+            assertEquals(1, parseErrors);
+        }
+        assertTrue(server.queryNames(pattern, null).isEmpty());
+    }
+}
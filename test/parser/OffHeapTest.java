@@ -0,0 +1,96 @@
+package parser;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// With -Dparser.storage=offheap the rows are read from the mapped snapshot file: at the first load,
+// after a restart, and after lines are appended or a log is changed between runs.
+class OffHeapTest {
+    @TempDir
+    Path logDir;
+    private LogFixture fixture;
+
+    @BeforeEach
+    void offHeap() throws IOException {
+        fixture = LogFixture.write(logDir, 3, 300, 21);
+        System.setProperty("parser.storage", "offheap");
+    }
+
+    @AfterEach
+    void onHeap() {
+        System.clearProperty("parser.storage");
+    }
+
+    @Test
+    void reload() throws Exception {
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            assertFixture(parser);
+        }
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            assertFixture(parser);
+        }
+    }
+
+    @Test
+    void appendedLines() throws Exception {
+        String line = "1.2.3.4\tNobody\t1.1.2030 0:0:0\tDONE_TASK 3\tOK";
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            LogTailer tailer = parser.newTailer();
+            append("fixture-0.log", "\n" + line + "\n");
+            tailer.catchUp();
+            fixture.rows.add(LogFixture.Row.parse(line));
+            assertFixture(parser);
+        }
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            assertFixture(parser);
+        }
+    }
+
+    // a log changed while no parser ran is parsed again, the others are taken from the snapshot
+    @Test
+    void changedLog() throws Exception {
+        new LogParser(logDir, 2).close();
+        fixture.rows.subList(600, 900).clear();
+        Random random = new Random(22);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            String line = LogFixture.line(random, new Date(LogFixture.date("1.3.2020 0:0:0").getTime() + i * 60_000L));
+            text.append(line).append('\n');
+            fixture.rows.add(LogFixture.Row.parse(line));
+        }
+        Files.write(logDir.resolve("fixture-2.log"), text.toString().getBytes(Charset.defaultCharset()));
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            assertFixture(parser);
+        }
+    }
+
+    private void append(String file, String text) throws IOException {
+        Files.write(logDir.resolve(file), text.getBytes(Charset.defaultCharset()), StandardOpenOption.APPEND);
+    }
+
+    private void assertFixture(LogParser parser) throws ParseException {
+        List<Date> dates = fixture.dates();
+        Date middle = dates.get(dates.size() / 2);
+        assertEquals(fixture.select(row -> row.ip, row -> true, null, null), parser.getUniqueIPs(null, null));
+        assertEquals(fixture.select(row -> row.user, row -> true, null, middle), parser.getUsers(null, middle));
+        assertEquals(fixture.select(row -> row.date, row -> row.status == Status.FAILED, middle, null), parser.getDatesWhenSomethingFailed(middle, null));
+        assertEquals(fixture.select(row -> row.event, row -> row.user.equals("Amigo"), null, null), parser.getEventsForUser("Amigo", null, null));
+        assertEquals(fixture.tasks(Event.DONE_TASK, null, null), parser.getAllDoneTasksAndTheirNumber(null, null));
+        assertEquals(fixture.count(row -> true, null, null), parser.getTimestamps(null, null).count());
+        assertEquals(fixture.select(row -> row.ip, row -> row.event == Event.LOGIN, null, null), parser.execute("get ip for event = \"LOGIN\""));
+    }
+}
@@ -0,0 +1,98 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The QL grammar of QueryPlan, the messages and positions of the queries it rejects, and the plan
+// cache.
+class QueryCompilerTest {
+    private final QueryCompiler compiler = new QueryCompiler(new DateDecoder(TimeZone.getDefault()));
+
+    @Test
+    void plans() throws ParseException {
+        QueryPlan plan = compiler.compile("get ip for user = \"Amigo\" and date between \"1.1.2020 0:0:0\" and \"2.1.2020 0:0:0\".");
+        assertNull(plan.aggregate);
+        assertEquals(QueryPlan.Field.IP, plan.select);
+        assertEquals(QueryPlan.Field.USER, plan.filter);
+        assertEquals("Amigo", plan.value);
+        assertEquals(LogFixture.date("1.1.2020 0:0:0"), plan.after);
+        assertEquals(LogFixture.date("2.1.2020 0:0:0"), plan.before);
+
+        plan = compiler.compile("  get event for status = \"FAILED\"  ");
+        assertEquals(Status.FAILED, plan.value);
+        assertNull(plan.after);
+
+        plan = compiler.compile("get count user date between \"1.1.2020 0:0:0\" and \"2.1.2020 0:0:0\"");
+        assertEquals(QueryPlan.Aggregate.COUNT, plan.aggregate);
+        assertEquals(QueryPlan.Field.USER, plan.select);
+
+        plan = compiler.compile("get user group by event");
+        assertEquals(QueryPlan.Aggregate.GROUP_BY, plan.aggregate);
+        assertEquals(QueryPlan.Field.EVENT, plan.group);
+
+        plan = compiler.compile("get top 3 task by event = \"SOLVE_TASK\"");
+        assertEquals(QueryPlan.Aggregate.TOP, plan.aggregate);
+        assertEquals(3, plan.limit);
+        assertEquals(Event.SOLVE_TASK, plan.value);
+
+        plan = compiler.compile("get approx count ip");
+        assertEquals(QueryPlan.Aggregate.APPROX_COUNT, plan.aggregate);
+    }
+
+    @Test
+    void errors() {
+        assertError("Expected 'get' at 'select ip'", 0, "select ip");
+        assertError("Unknown field: ips", 4, "get ips");
+        assertError("Expected a field name at end of query", 3, "get");
+        assertError("Cannot get ip for ip", 11, "get ip for ip = \"1.2.3.4\"");
+        assertError("Expected '=' at '\"Amigo\"'", 16, "get ip for user \"Amigo\"");
+        assertError("Expected a quoted value at 'Amigo'", 18, "get ip for user = Amigo");
+        assertError("Unterminated quoted value", 18, "get ip for user = \"Amigo");
+        assertError("Unknown event: LOGOUT", 19, "get ip for event = \"LOGOUT\"");
+        assertError("Unknown status: DONE", 20, "get ip for status = \"DONE\"");
+        assertError("Expected 'between' at '\"1.1.2020 0:0:0\"'", 12, "get ip date \"1.1.2020 0:0:0\"");
+        assertError("Unexpected 'now'", 7, "get ip now");
+        assertError("Unexpected '.'", 8, "get ip ..");
+        assertError("The task field is supported only by count, group by and top", 4, "get task");
+        assertError("The task field is supported only by count, group by and top", 11, "get ip for task = \"1\"");
+        assertError("Invalid task: -1", 24, "get count ip for task = \"-1\"");
+        assertError("Cannot group ip by ip", 16, "get ip group by ip");
+        assertError("Expected a positive number of values at '0'", 8, "get top 0 ip");
+        assertError("Approximate count supports only ip and user", 17, "get approx count date");
+        assertError("Approximate count does not support 'for'", 20, "get approx count ip for user = \"Amigo\"");
+    }
+
+    // the offset of an unparseable date is that of the wrong character in the query
+    @Test
+    void dateErrorPosition() {
+        String query = "get ip for date = \"1.1.2020 x\"";
+        assertError("Unparseable date: \"1.1.2020 x\"", query.indexOf('x'), query);
+    }
+
+    // a query compiled again and again keeps its plan while one-off queries come and go
+    @Test
+    void cache() throws ParseException {
+        QueryPlan hot = compiler.compile("get ip");
+        for (int i = 0; i < 5000; i++) {
+            compiler.compile("get ip for user = \"user " + i + "\"");
+            assertSame(hot, compiler.compile("get ip"));
+            assertTrue(compiler.size() <= 1024);
+        }
+        QueryPlan plan = compiler.compile("get user for ip = \"1.2.3.4\"");
+        assertSame(plan, compiler.compile("get user for ip = \"1.2.3.4\""));
+    }
+
+    private void assertError(String message, int position, String query) {
+        ParseException e = assertThrows(ParseException.class, () -> compiler.compile(query));
+        assertEquals(message, e.getMessage());
+        assertEquals(position, e.getErrorOffset());
+    }
+}
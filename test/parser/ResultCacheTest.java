@@ -0,0 +1,158 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultCacheTest {
+    @TempDir
+    Path logDir;
+
+    @Test
+    void hits() {
+        ResultCache cache = new ResultCache(100);
+        AtomicInteger queries = new AtomicInteger();
+        Set<String> first = cache.get(key("a"), 0, 10, () -> Set.of("x", String.valueOf(queries.incrementAndGet())));
+        Set<String> second = cache.get(key("a"), 0, 10, () -> Set.of("x", String.valueOf(queries.incrementAndGet())));
+        assertSame(first, second);
+        assertEquals(1, queries.get());
+        assertThrows(UnsupportedOperationException.class, () -> first.add("y"));
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(3, stats.getWeight());
+    }
+
+    // new rows drop only the entries whose exclusive range they fall into
+    @Test
+    void invalidate() {
+        ResultCache cache = new ResultCache(100);
+        cache.get(key("early"), 0, 10, () -> 1);
+        cache.get(key("late"), 10, 20, () -> 2);
+        cache.get(key("all"), 0, 20, () -> 3);
+        cache.invalidate(10, 10);
+        assertEquals(1, cache.stats().getInvalidationCount());
+        assertEquals(1, (int) cache.get(key("early"), 0, 10, () -> -1));
+        assertEquals(-1, (int) cache.get(key("all"), 0, 20, () -> -1));
+        cache.invalidate(15, 30);
+        assertEquals(-1, (int) cache.get(key("late"), 10, 20, () -> -1));
+        assertEquals(-2, (int) cache.get(key("all"), 0, 20, () -> -2));
+        assertEquals(1, (int) cache.get(key("early"), 0, 10, () -> -1));
+    }
+
+    // the sweep gives referenced entries a second chance and evicts the others in insertion order
+    @Test
+    void evictUnreferenced() {
+        ResultCache cache = new ResultCache(3);
+        cache.get(key("a"), 0, 1, () -> "a");
+        cache.get(key("b"), 0, 1, () -> "b");
+        cache.get(key("c"), 0, 1, () -> "c");
+        cache.get(key("a"), 0, 1, () -> "miss");
+        cache.get(key("d"), 0, 1, () -> "d");
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.getEvictionCount());
+        assertEquals(3, stats.getSize());
+        assertEquals("a", cache.get(key("a"), 0, 1, () -> "miss"));
+        assertEquals("miss", cache.get(key("b"), 0, 1, () -> "miss"));
+    }
+
+    // cached results of a parser follow appended rows
+    @Test
+    void appendedRows() throws IOException {
+        LogFixture fixture = LogFixture.write(logDir, 2, 300, 11);
+        List<Date> dates = fixture.dates();
+        Date middle = dates.get(dates.size() / 2);
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            LogTailer tailer = parser.newTailer();
+            Set<String> early = parser.getUniqueIPs(null, middle);
+            Set<String> all = parser.getUniqueIPs(null, null);
+            assertEquals(fixture.select(row -> row.ip, row -> true, null, middle), early);
+            assertEquals(fixture.select(row -> row.ip, row -> true, null, null), all);
+
+            String line = "1.2.3.4\tAmigo\t1.1.2030 0:0:0\tLOGIN\tOK";
+            Files.write(logDir.resolve("fixture-1.log"), ("\n" + line + "\n").getBytes(Charset.defaultCharset()), StandardOpenOption.APPEND);
+            tailer.catchUp();
+            fixture.rows.add(LogFixture.Row.parse(line));
+            assertSame(early, parser.getUniqueIPs(null, middle));
+            assertTrue(parser.getUniqueIPs(null, null).contains("1.2.3.4"));
+            assertEquals(fixture.select(row -> row.ip, row -> true, null, null), parser.getUniqueIPs(null, null));
+            assertTrue(parser.getCacheStats().getInvalidationCount() > 0);
+        }
+    }
+
+    // a caller changing a returned Date changes neither the cached result nor what others get
+    @Test
+    void returnedDates() throws IOException, ParseException {
+        LogFixture fixture = LogFixture.write(logDir, 2, 300, 12);
+        Set<Date> expected = fixture.select(row -> row.date, row -> true, null, null);
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            for (int i = 0; i < 2; i++) {
+                parser.getAllDates(null, null).forEach(date -> date.setTime(0));
+                parser.getDatesWhenSomethingFailed(null, null).forEach(date -> date.setTime(0));
+                parser.getDatesForUserAndEvent("Amigo", null, null, null).forEach(date -> date.setTime(0));
+                for (Object date : parser.execute("get date for ip = \"127.0.0.1\"")) {
+                    ((Date) date).setTime(0);
+                }
+                for (Object entry : parser.execute("get event group by date")) {
+                    ((Date) ((Map.Entry<?, ?>) entry).getKey()).setTime(0);
+                }
+                for (Object entry : parser.execute("get top 3 date")) {
+                    ((Date) ((Map.Entry<?, ?>) entry).getKey()).setTime(0);
+                }
+            }
+            Set<Date> dates = parser.getAllDates(null, null);
+            assertEquals(expected, dates);
+            for (Date date : expected) {
+                assertTrue(dates.contains(date));
+            }
+            assertEquals(fixture.select(row -> row.date, row -> row.status == Status.FAILED, null, null), parser.getDatesWhenSomethingFailed(null, null));
+            assertEquals(fixture.select(row -> row.date, row -> row.user.equals("Amigo"), null, null), parser.getDatesForUserAndEvent("Amigo", null, null, null));
+            assertEquals(new HashSet<Object>(fixture.select(row -> row.date, row -> row.ip.equals("127.0.0.1"), null, null)),
+                    parser.execute("get date for ip = \"127.0.0.1\""));
+            for (Object entry : parser.execute("get event group by date")) {
+                assertTrue(expected.contains((Date) ((Map.Entry<?, ?>) entry).getKey()));
+            }
+            for (Object entry : parser.execute("get top 3 date")) {
+                assertTrue(expected.contains((Date) ((Map.Entry<?, ?>) entry).getKey()));
+            }
+            assertTrue(parser.getCacheStats().getHitCount() > 0);
+        }
+    }
+
+    // the result cache is bounded by the number of cached elements
+    @Test
+    void bounded() {
+        ResultCache cache = new ResultCache(50);
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            Set<Integer> value = IntStream.range(0, random.nextInt(10)).boxed().collect(Collectors.toSet());
+            cache.get(key(i), 0, 1, () -> value);
+            assertTrue(cache.stats().getWeight() <= 50);
+        }
+    }
+
+    private static List<Object> key(Object... parts) {
+        return Arrays.asList(parts);
+    }
+}
@@ -0,0 +1,78 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Counts from the hour buckets of a segment against counting its rows one by one, for row ranges
+// within one hour, across a few hours and over the whole segment.
+class RollupTest {
+    @Test
+    void countKeys() {
+        Random random = new Random(5);
+        Segment segment = segment(random, 20_000);
+        Rollup rollup = segment.rollup;
+        assertCounts(segment, 0, segment.size);
+        assertCounts(segment, 0, 0);
+        assertCounts(segment, segment.size, segment.size);
+        for (int i = 0; i < 500; i++) {
+            int from = random.nextInt(segment.size + 1);
+            int length = random.nextBoolean() ? random.nextInt(50) : random.nextInt(segment.size - from + 1);
+            assertCounts(segment, from, Math.min(segment.size, from + length));
+        }
+        // ranges that start and end exactly on hour boundaries
+        long hour = 60 * 60 * 1000;
+        for (int i = 0; i < 100; i++) {
+            long start = segment.date(0) / hour * hour + random.nextInt(50) * hour;
+            long end = start + random.nextInt(20) * hour;
+            assertCounts(segment, segment.firstNotBefore(start), segment.firstNotBefore(end));
+        }
+        int keys = 0;
+        for (int count : rollup.countKeys(0, segment.size)) {
+            keys += count > 0 ? 1 : 0;
+        }
+        assertEquals(rollup.keyCount(), keys);
+    }
+
+    private static void assertCounts(Segment segment, int fromRow, int toRow) {
+        Rollup rollup = segment.rollup;
+        int[] counts = rollup.countKeys(fromRow, toRow);
+        int[] expected = new int[rollup.keyCount()];
+        for (int row = fromRow; row < toRow; row++) {
+            for (int key = 0; key < expected.length; key++) {
+                if (rollup.event(key) == segment.event(row) && rollup.status(key) == segment.status(row) && rollup.task(key) == segment.task(row)) {
+                    expected[key]++;
+                }
+            }
+        }
+        for (int key = 0; key < expected.length; key++) {
+            assertEquals(expected[key], counts[key], "rows " + fromRow + " to " + toRow);
+        }
+    }
+
+    // date sorted rows a few seconds to a few hours apart, with runs of equal dates
+    static Segment segment(Random random, int size) {
+        long[] dates = new long[size];
+        int[] ips = new int[size];
+        int[] users = new int[size];
+        byte[] events = new byte[size];
+        int[] tasks = new int[size];
+        byte[] statuses = new byte[size];
+        long date = LogFixture.date("1.1.2020 0:0:0").getTime();
+        for (int row = 0; row < size; row++) {
+            int step = random.nextInt(100);
+            date += step < 10 ? 0 : step < 99 ? random.nextInt(60_000) : random.nextInt(5 * 3_600_000);
+            dates[row] = date;
+            ips[row] = random.nextInt(1000);
+            users[row] = random.nextInt(100);
+            events[row] = (byte) random.nextInt(Event.values().length);
+            boolean task = events[row] == Event.SOLVE_TASK.ordinal() || events[row] == Event.DONE_TASK.ordinal();
+            tasks[row] = task ? 1 + random.nextInt(LogFixture.TASKS) : LogStore.NO_TASK;
+            statuses[row] = (byte) random.nextInt(Status.values().length);
+        }
+        return new Segment(Path.of("test.log"), dates, ips, users, events, tasks, statuses);
+    }
+}
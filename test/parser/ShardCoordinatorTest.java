@@ -0,0 +1,78 @@
+package parser;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Merged results of worker processes on localhost against one LogParser over all the logs.
+class ShardCoordinatorTest {
+    @TempDir
+    static Path logDir;
+    private static LogParser parser;
+    private static ShardCoordinator coordinator;
+    private static final List<Date[]> ranges = new ArrayList<>();
+
+    @BeforeAll
+    static void load() throws Exception {
+        LogFixture fixture = LogFixture.write(logDir, 5, 300, 31);
+        parser = new LogParser(logDir, 2);
+        coordinator = new ShardCoordinator(logDir, 3, 1);
+        List<Date> dates = fixture.dates();
+        ranges.add(new Date[]{null, null});
+        ranges.add(new Date[]{dates.get(dates.size() / 4), dates.get(dates.size() / 2)});
+        ranges.add(new Date[]{dates.get(dates.size() / 3), null});
+    }
+
+    @AfterAll
+    static void close() throws Exception {
+        coordinator.close();
+        parser.close();
+    }
+
+    @Test
+    void typedQueries() {
+        assertEquals(3, coordinator.getWorkers());
+        assertEquals(parser.getAllUsers(), coordinator.getAllUsers());
+        for (Date[] range : ranges) {
+            Date after = range[0], before = range[1];
+            assertEquals(parser.getUniqueIPs(after, before), coordinator.getUniqueIPs(after, before));
+            assertEquals(parser.getNumberOfUniqueIPs(after, before), coordinator.getNumberOfUniqueIPs(after, before));
+            assertEquals(parser.getNumberOfUsers(after, before), coordinator.getNumberOfUsers(after, before));
+            assertEquals(parser.getIPsForEvent(Event.LOGIN, after, before), coordinator.getIPsForEvent(Event.LOGIN, after, before));
+            assertEquals(parser.getDatesWhenSomethingFailed(after, before), coordinator.getDatesWhenSomethingFailed(after, before));
+            assertEquals(parser.getNumberOfAllEvents(after, before), coordinator.getNumberOfAllEvents(after, before));
+            assertEquals(parser.getAllSolvedTasksAndTheirNumber(after, before), coordinator.getAllSolvedTasksAndTheirNumber(after, before));
+            assertEquals(parser.getAllDoneTasksAndTheirNumber(after, before), coordinator.getAllDoneTasksAndTheirNumber(after, before));
+            for (String user : LogFixture.USERS) {
+                assertEquals(parser.getNumberOfUserEvents(user, after, before), coordinator.getNumberOfUserEvents(user, after, before));
+                assertEquals(parser.getIPsForUser(user, after, before), coordinator.getIPsForUser(user, after, before));
+                assertEquals(parser.getDateWhenUserLoggedFirstTime(user, after, before), coordinator.getDateWhenUserLoggedFirstTime(user, after, before));
+                assertEquals(parser.getDateWhenUserSolvedTask(user, 2, after, before), coordinator.getDateWhenUserSolvedTask(user, 2, after, before));
+                assertEquals(parser.getDatesWhenUserWroteMessage(user, after, before), coordinator.getDatesWhenUserWroteMessage(user, after, before));
+            }
+            for (int task = 1; task <= LogFixture.TASKS; task++) {
+                assertEquals(parser.getNumberOfAttemptToSolveTask(task, after, before), coordinator.getNumberOfAttemptToSolveTask(task, after, before));
+                assertEquals(parser.getDoneTaskUsers(after, before, task), coordinator.getDoneTaskUsers(after, before, task));
+            }
+        }
+    }
+
+    @Test
+    void execute() throws ParseException {
+        String range = " date between \"5.1.2020 0:00:00\" and \"20.2.2020 12:30:00\"";
+        for (String query : new String[]{"get ip", "get date for status = \"ERROR\"", "get user for event = \"DONE_TASK\" and" + range,
+                "get status for user = \"Amigo\"", "get count ip", "get count user for event = \"LOGIN\"" + " and" + range,
+                "get user group by event", "get task group by user", "get top 3 user by event = \"SOLVE_TASK\"", "get top 2 task"}) {
+            assertEquals(parser.execute(query), coordinator.execute(query), query);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Restarts from the snapshot file, compared with parsing the logs again.
+class SnapshotFileTest {
+    @TempDir
+    Path logDir;
+
+    // the sources stored unchanged in the snapshot file, with their offsets
+    private Map<Path, Long> stored() {
+        Map<Path, Long> offsets = new HashMap<>();
+        new SnapshotFile(logDir, SnapshotFile.NAME, TimeZone.getDefault(), false).read(new IpTable(), new SymbolTable(), offsets, new HashMap<>());
+        return offsets;
+    }
+
+    @Test
+    void reload() throws IOException {
+        LogFixture fixture = LogFixture.write(logDir, 3, 200, 7);
+        List<Object> expected;
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            expected = results(parser);
+        }
+        assertEquals(3, stored().size());
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            assertEquals(expected, results(parser));
+            assertEquals(fixture.select(row -> row.user, row -> true, null, null), parser.getAllUsers());
+        }
+    }
+
+    // a source removed while the parser runs is left out of the snapshot written on close
+    @Test
+    void deletedSource() throws IOException {
+        LogFixture.write(logDir, 3, 200, 7);
+        Path deleted = logDir.resolve("fixture-1.log");
+        Path appended = logDir.resolve("fixture-2.log");
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            LogTailer tailer = parser.newTailer();
+            Files.writeString(appended, "\n" + LogFixture.line(new Random(1), LogFixture.date("1.3.2020 10:00:00")) + "\n",
+                    StandardOpenOption.APPEND);
+            tailer.catchUp();
+            Files.delete(deleted);
+        }
+        Map<Path, Long> stored = stored();
+        assertEquals(Set.of(logDir.resolve("fixture-0.log"), appended), stored.keySet());
+        assertEquals(Files.size(appended), stored.get(appended));
+        List<Object> restarted;
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            restarted = results(parser);
+        }
+        Files.delete(logDir.resolve(SnapshotFile.NAME));
+        try (LogParser parser = new LogParser(logDir, 2)) {
+            assertEquals(results(parser), restarted);
+        }
+    }
+
+    private static List<Object> results(LogParser parser) {
+        return List.of(parser.getTimestamps(null, null).count(), parser.getAllUsers(), parser.getUniqueIPs(null, null),
+                parser.getAllSolvedTasksAndTheirNumber(null, null), parser.getAllDates(null, null));
+    }
+}
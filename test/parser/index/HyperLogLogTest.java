@@ -0,0 +1,63 @@
+package parser.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Estimates within four standard errors, and merges that estimate the union.
+class HyperLogLogTest {
+    @Test
+    void estimate() {
+        for (int precision : new int[]{HyperLogLog.MIN_PRECISION + 6, 12, 14, HyperLogLog.MAX_PRECISION}) {
+            for (int distinct : new int[]{0, 1, 100, 10_000, 300_000}) {
+                HyperLogLog sketch = new HyperLogLog(precision);
+                for (int i = 0; i < distinct; i++) {
+                    sketch.add(i);
+                    sketch.add(i);
+                }
+                assertWithin(distinct, sketch.estimate(), precision);
+            }
+        }
+    }
+
+    @Test
+    void merge() {
+        Random random = new Random(9);
+        HyperLogLog union = new HyperLogLog(14);
+        HyperLogLog merged = new HyperLogLog(14);
+        HyperLogLog folded = new HyperLogLog(11);
+        for (int part = 0; part < 5; part++) {
+            HyperLogLog sketch = new HyperLogLog(14);
+            int from = random.nextInt(100_000);
+            for (int i = from; i < from + 50_000; i++) {
+                sketch.add(i);
+                union.add(i);
+            }
+            merged.merge(sketch);
+            folded.merge(sketch);
+        }
+        assertEquals(union.estimate(), merged.estimate());
+        assertWithin(union.estimate(), folded.estimate(), 11);
+        assertThrows(IllegalArgumentException.class, () -> union.merge(folded));
+    }
+
+    @Test
+    void precisionFor() {
+        assertEquals(14, HyperLogLog.precisionFor(0.01));
+        assertEquals(HyperLogLog.MAX_PRECISION, HyperLogLog.precisionFor(0.0001));
+        assertEquals(HyperLogLog.MIN_PRECISION, HyperLogLog.precisionFor(1));
+        for (double error = 0.005; error < 0.3; error *= 1.5) {
+            assertTrue(1.04 / Math.sqrt(1 << HyperLogLog.precisionFor(error)) <= error);
+        }
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.precisionFor(0));
+    }
+
+    private static void assertWithin(long expected, long estimate, int precision) {
+        double error = 4 * 1.04 / Math.sqrt(1 << precision) * expected;
+        assertTrue(Math.abs(estimate - expected) <= Math.max(1, error), estimate + " estimates " + expected);
+    }
+}